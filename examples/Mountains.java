@@ -68,8 +68,7 @@ public class Mountains {
             for (int l = 0; l < lines.length-1; l++) {
                 double p = (l+1d) / lines.length;
                 int color = Gradient.gradient(gradient, p);
-                for (int y = lines[l+1]; y < lines[l]; y++)
-                    layer.setRGB(x, height-1-y, color);
+                layer.drawVLine(x, height-lines[l], lines[l]-lines[l+1], color);
             }
 
         });
@@ -1,6 +1,7 @@
 package sher.argon;
 
 import sher.argon.core.chronos.ChronosListener;
+import sher.argon.core.chronos.ClockStats;
 import sher.argon.core.recorder.Recorder;
 import sher.argon.core.renderer.Renderer;
 import sher.argon.core.chronos.Chronos;
@@ -14,6 +15,7 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 
 /**
@@ -40,6 +42,9 @@ public class Argon {
     Window window;
     Chronos chronos;
     Recorder recorder;
+    Clock renderClock;
+    // Run by the render clock after every frame while recording
+    volatile Clock recordingClock;
 
     ArrayList<Variable> variables;
 
@@ -59,6 +64,41 @@ public class Argon {
      * @throws IllegalArgumentException if any of the dimensions are less then 1
      */
     public Argon(int canvasWidth, int canvasHeight, int windowMaxDim) {
+        this(canvasWidth, canvasHeight, windowMaxDim, false);
+    }
+    /**
+     * Creates and initiates Argon.
+     * Canvas dimensions are fixed and cannot be changed after initiation.
+     * <br>
+     * The default maximum viewport size is 1000 pixels.
+     * @param canvasWidth canvas/layers width
+     * @param canvasHeight canvas/layers height
+     * @throws IllegalArgumentException if any of the dimensions are less then 1
+     */
+    public Argon(int canvasWidth, int canvasHeight) {
+        this(canvasWidth, canvasHeight, 1000);
+    }
+    /**
+     * Creates and initiates Argon, optionally headless.
+     * <br>
+     * A headless instance creates no window and needs no display, e.g. to render on a server.
+     * Its clocks run offline: simulated time advances to the next due tick as soon as the previous one completes, so the clocks run as fast as the computation allows,
+     * and every clock ticks exactly at its frequency in simulated time regardless of how long the ticks take.
+     * Rendered frames are fed straight to the {@link #setupRecorder(int, int, int, String) recorder} once {@link #startRecording() recording} is started.
+     * <br>
+     * Without a window, a fixed number of frames is rendered with {@link #renderFrames(int)}.
+     * Alternatively, the clocks are started with {@link #startClocks()} or {@link #showAndStart()} and stopped with {@link #stopClocks()}, e.g. from a clock once {@link #frameCounter()} reaches the desired number of frames.
+     * Stopped clocks resume where they stopped, each from its own tick, so the clocks keep their frequency ratios across restarts and {@link #renderFrames(int)} calls.
+     * @param canvasWidth canvas/layers width
+     * @param canvasHeight canvas/layers height
+     * @param headless headless flag
+     * @throws IllegalArgumentException if any of the dimensions are less then 1
+     */
+    public Argon(int canvasWidth, int canvasHeight, boolean headless) {
+        this(canvasWidth, canvasHeight, 1000, headless);
+    }
+
+    Argon(int canvasWidth, int canvasHeight, int windowMaxDim, boolean headless) {
         if (canvasWidth < 1 || canvasHeight < 1 || windowMaxDim < 1)
             throw new IllegalArgumentException("Illegal dimensions");
 
@@ -69,19 +109,24 @@ public class Argon {
         this.canvasHeight = canvasHeight;
         renderer = new Renderer(canvasWidth, canvasHeight);
 
-        int windowWidth = windowMaxDim;
-        int windowHeight = windowMaxDim;
-        if (canvasWidth != canvasHeight) {
-            float aspectRatio = (float) canvasWidth / canvasHeight;
-            if (aspectRatio > 1f)
-                windowHeight = (int) (1000f / aspectRatio);
-            else
-                windowWidth = (int) (1000f * aspectRatio);
+        if (!headless) {
+            int windowWidth = windowMaxDim;
+            int windowHeight = windowMaxDim;
+            if (canvasWidth != canvasHeight) {
+                float aspectRatio = (float) canvasWidth / canvasHeight;
+                if (aspectRatio > 1f)
+                    windowHeight = (int) (1000f / aspectRatio);
+                else
+                    windowWidth = (int) (1000f * aspectRatio);
+            }
+            window = new Window(windowWidth, windowHeight, renderer, argonInterface);
         }
-        window = new Window(windowWidth, windowHeight, renderer.getRenderImage(), argonInterface);
 
         chronos = new Chronos();
+        chronos.setOffline(headless);
         chronos.addChronosListener(argonInterface);
+        // With concurrent clocks, frames are composited from snapshots taken between ticks
+        chronos.setPublisher(renderer::snapshot);
 
         variables = new ArrayList<>();
 
@@ -90,18 +135,6 @@ public class Argon {
         RECORDING_FRAME_COUNTER = 0;
         RECORDER_FLAG = false;
     }
-    /**
-     * Creates and initiates Argon.
-     * Canvas dimensions are fixed and cannot be changed after initiation.
-     * <br>
-     * The default maximum viewport size is 1000 pixels.
-     * @param canvasWidth canvas/layers width
-     * @param canvasHeight canvas/layers height
-     * @throws IllegalArgumentException if any of the dimensions are less then 1
-     */
-    public Argon(int canvasWidth, int canvasHeight) {
-        this(canvasWidth, canvasHeight, 1000);
-    }
 
     /**
      * Adds listener for the UI and variables
@@ -119,11 +152,11 @@ public class Argon {
      */
     public void reset() {
         FRAME_COUNTER = 0;
+        chronos.resetSimulatedTime();
         RECORDING_FRAME_COUNTER = 0;
         for (ArgonListener listener: argonListeners)
             listener.onReset();
-        renderer.combineLayers();
-        window.draw();
+        render();
     }
 
     /**
@@ -136,6 +169,50 @@ public class Argon {
         RENDER_UPDATERATE = updaterate;
     }
 
+    /**
+     * Enables or disables incremental rendering.
+     * When enabled, only the regions of the {@link Layer layers} changed since the previous frame are recomposited and repainted.
+     * Frames in which no layer has changed are neither composited nor repainted, which keeps paused or static sketches idle.
+     * <br>
+     * Changes are tracked for the layer's methods and {@link Layer#g graphics}.
+     * Writes made directly to the {@link Layer#raster raster} must be followed by {@link Layer#markDirty(int, int, int, int)}, otherwise they might not be shown.
+     * Disabled by default.
+     * @param incremental incremental rendering flag
+     */
+    public void setIncrementalRendering(boolean incremental) {
+        renderer.setIncremental(incremental);
+    }
+
+    /**
+     * Enables or disables preview mode.
+     * In preview mode the viewport frames are composited at a reduced resolution, the largest integer fraction of the canvas that still covers the viewport.
+     * This greatly reduces rendering cost of canvases much larger than the window.
+     * <br>
+     * Recording and capture always use the full canvas resolution.
+     * Must be called before {@link #show()}.
+     * @param preview preview mode flag
+     */
+    public void setPreviewMode(boolean preview) {
+        int scale = 1;
+        if (preview && window != null)
+            scale = Math.max(1, Math.min(canvasWidth / window.getWidth(), canvasHeight / window.getHeight()));
+        renderer.setPreviewScale(scale);
+    }
+
+    /**
+     * Enables or disables premultiplied alpha.
+     * Premultiplied {@link Layer layers} store colors multiplied by their alpha, {@link BufferedImage#TYPE_INT_ARGB_PRE}, which makes compositing considerably cheaper.
+     * The layers' pixel methods still take and return regular colors, while the {@link Layer#raster raster} holds premultiplied values, see {@link sher.argon.util.Gradient#premultiply(int)}.
+     * <br>
+     * Must be called before any layer is created.
+     * Disabled by default.
+     * @param premultiplied premultiplied alpha flag
+     * @throws IllegalStateException if layers have already been created
+     */
+    public void setPremultipliedAlpha(boolean premultiplied) {
+        renderer.setPremultiplied(premultiplied);
+    }
+
     /**
      * Adds {@link Clock}.
      * Clock is a user-defined function that runs at specific updaterate (frequency) per second.
@@ -165,6 +242,65 @@ public class Argon {
         addClock(null, clock, frequency);
     }
 
+    /**
+     * Adds {@link Clock} to a named group.
+     * With {@link #setMultithreadedClocks(boolean) multithreaded clocks}, the clocks of a group run sequentially on a thread of their own.
+     * Otherwise, the group has no effect.
+     * @param clockName clock's name to be displayed in the UI panel
+     * @param clock {@link Clock}
+     * @param frequency frequency or updates per second of the function
+     * @param group group name, or null to run the clock on a thread of its own
+     * @see Clock
+     */
+    public void addClock(String clockName, Clock clock, int frequency, String group) {
+        if (clock == null) throw new IllegalArgumentException("Clock is null");
+        chronos.addClock(clockName, clock, frequency, group, false);
+        if (RENDER_UPDATERATE == 0) RENDER_UPDATERATE = 60;
+    }
+
+    /**
+     * Sets whether the clocks run on multiple threads.
+     * <br>
+     * By default, all clocks run sequentially on a single thread, so a slow clock slows down all the others, rendering included.
+     * In multithreaded mode, every clock, or every {@link #addClock(String, Clock, int, String) named group} of clocks, runs on its own thread.
+     * The threads share a common time base, and frames are composited from snapshots of the layers taken between ticks, so rendering never waits for the clocks and the rendered frames never show a half-finished tick.
+     * Clocks of different groups do run concurrently with each other and must not modify the same data without synchronization.
+     * <br>
+     * Takes effect the next time the clocks are started.
+     * @param multithreaded multithreaded clocks flag
+     */
+    public void setMultithreadedClocks(boolean multithreaded) {
+        chronos.setMultithreaded(multithreaded);
+    }
+
+    /**
+     * Sets whether the clocks run at a fixed timestep.
+     * <br>
+     * By default, the clocks keep to their relative frequencies and a slow clock slows down all the others, together with simulated time.
+     * With fixed timestep, every clock ticks at exactly its frequency in real time, so each tick can advance the simulation by a constant step of 1/frequency seconds.
+     * A clock running late catches up with the missed ticks, up to 250ms of lag, beyond which the excess is dropped.
+     * The Render clock runs freely and only skips frames when late. Use the alpha passed to {@link ArgonListener#onRender(double)} to interpolate between simulation ticks.
+     * <br>
+     * Takes effect the next time the clocks are started.
+     * @param fixedTimestep fixed timestep flag
+     * @see #interpolationAlpha(String)
+     */
+    public void setFixedTimestep(boolean fixedTimestep) {
+        chronos.setFixedTimestep(fixedTimestep);
+    }
+
+    /**
+     * Returns the fraction of a step elapsed since the clock's last tick, in range [0-1].
+     * With fixed timestep, render the state interpolated between the clock's previous and current tick with this value.
+     * Otherwise, the value is always 1.
+     * @param clockName clock's name
+     * @return interpolation alpha, 1 if there is no such clock
+     * @see #setFixedTimestep(boolean)
+     */
+    public double interpolationAlpha(String clockName) {
+        return chronos.getInterpolationAlpha(clockName);
+    }
+
     /**
      * Creates and initializes {@link Layer layer}.
      * The layer's dimensions the equal Argon canvas's and are immutable.
@@ -176,7 +312,8 @@ public class Argon {
         Layer layer = new Layer(
                 renderer.getWidth(),
                 renderer.getHeight(),
-                renderLayer);
+                renderLayer,
+                renderer.isPremultiplied());
         renderer.addLayer(layer);
         return layer;
     }
@@ -191,6 +328,73 @@ public class Argon {
         return createLayer(true);
     }
 
+    /**
+     * Creates and initializes {@link TiledLayer tiled layer} for canvases too large to be held in memory.
+     * Only the tiles that have been written to are allocated and the tiles over the memory budget are paged out to disk.
+     * Large canvases are best displayed in {@link #setPreviewMode(boolean) preview mode}.
+     * @param renderLayer flag to either render or skip this layer.
+     * @param memoryMegabytes memory budget of the layer's tiles in megabytes
+     * @return {@link TiledLayer}
+     * @see TiledLayer
+     */
+    public TiledLayer createTiledLayer(boolean renderLayer, int memoryMegabytes) {
+        if (memoryMegabytes < 1) throw new IllegalArgumentException("Illegal memory budget");
+        TiledLayer layer = new TiledLayer(
+                renderer.getWidth(),
+                renderer.getHeight(),
+                renderLayer,
+                renderer.isPremultiplied(),
+                memoryMegabytes * 1024L * 1024L);
+        renderer.addLayer(layer);
+        return layer;
+    }
+
+    /**
+     * Creates and initializes {@link TiledLayer tiled layer} for canvases too large to be held in memory.
+     * @param memoryMegabytes memory budget of the layer's tiles in megabytes
+     * @return {@link TiledLayer}
+     * @see TiledLayer
+     */
+    public TiledLayer createTiledLayer(int memoryMegabytes) {
+        return createTiledLayer(true, memoryMegabytes);
+    }
+
+    /**
+     * Creates and initializes {@link DirectLayer direct layer} with pixels held outside the Java heap.
+     * @param renderLayer flag to either render or skip this layer.
+     * @return {@link DirectLayer}
+     * @see DirectLayer
+     */
+    public DirectLayer createDirectLayer(boolean renderLayer) {
+        DirectLayer layer = new DirectLayer(
+                renderer.getWidth(),
+                renderer.getHeight(),
+                renderLayer,
+                renderer.isPremultiplied());
+        renderer.addLayer(layer);
+        return layer;
+    }
+
+    /**
+     * Creates and initializes {@link DirectLayer direct layer} with pixels mapped from the file.
+     * The file is created or extended to fit the canvas, its existing content becomes the layer's pixels.
+     * @param renderLayer flag to either render or skip this layer.
+     * @param path file path
+     * @return {@link DirectLayer}
+     * @throws IOException if the file cannot be mapped
+     * @see DirectLayer
+     */
+    public DirectLayer createMappedLayer(boolean renderLayer, String path) throws IOException {
+        DirectLayer layer = DirectLayer.map(
+                renderer.getWidth(),
+                renderer.getHeight(),
+                renderLayer,
+                renderer.isPremultiplied(),
+                Path.of(path));
+        renderer.addLayer(layer);
+        return layer;
+    }
+
     /**
      * Removes layer from the renderer's queue.
      * @param layer layer to remove
@@ -199,6 +403,19 @@ public class Argon {
         renderer.removeLayer(layer);
     }
 
+    /**
+     * Groups adjacent layers.
+     * The group can be {@link LayerGroup#freeze() frozen} to render its layers from a single cached image.
+     * @param layers adjacent layers
+     * @return {@link LayerGroup}
+     * @throws IllegalArgumentException if no layers are given
+     * @see LayerGroup
+     */
+    public LayerGroup groupLayers(Layer... layers) {
+        if (layers == null || layers.length == 0) throw new IllegalArgumentException("No layers to group");
+        return new LayerGroup(renderer, layers.clone());
+    }
+
     /**
      * Creates an empty image with alpha component.
      * @param width image width
@@ -233,19 +450,68 @@ public class Argon {
      * Any changes after this call might be detrimental to the framework's operation.
      */
     public void show() {
-        if (RENDER_UPDATERATE != 0) {
-            chronos.addClock("Render", () -> {
-                renderer.combineLayers();
-                window.draw();
-                FRAME_COUNTER++;
-            }, RENDER_UPDATERATE);
+        if (RENDER_UPDATERATE != 0)
+            addRenderClock();
+
+        if (window != null) {
+            window.show(variables, chronos.getClocksCount(), recorder!=null);
+            if (RENDER_UPDATERATE != 0)
+                window.updateSceneTimes(chronos.getClockNames(), new int[chronos.getClocksCount()], new float[chronos.getClocksCount()]);
         }
+        render();
+    }
 
-        window.show(variables, chronos.getClocksCount(), recorder!=null);
-        if (RENDER_UPDATERATE != 0)
-            window.updateSceneTimes(chronos.getClockNames(), new int[chronos.getClocksCount()], new float[chronos.getClocksCount()]);
-        renderer.combineLayers();
-        window.draw();
+    void addRenderClock() {
+        if (renderClock != null) return;
+        if (RENDER_UPDATERATE == 0) RENDER_UPDATERATE = 60;
+        renderClock = () -> {
+            double alpha = chronos.getInterpolationAlpha();
+            for (ArgonListener listener : argonListeners)
+                listener.onRender(alpha);
+            render();
+            FRAME_COUNTER++;
+            Clock recordingClock = this.recordingClock;
+            if (recordingClock != null)
+                recordingClock.tick();
+        };
+        chronos.addClock("Render", renderClock, RENDER_UPDATERATE, "Render", true);
+    }
+
+    /**
+     * Runs the clocks for exactly the given number of rendered frames, without any real-time pacing, and returns once done.
+     * <br>
+     * Simulated time advances to the next due tick as soon as the previous one completes, so each clock ticks exactly its frequency / renderer updaterate times per frame on average, e.g. a 240 UPS clock ticks 4 times per frame at 60 FPS, however long the ticks take.
+     * Every frame is combined and, if {@link #startRecording() recording} is started, queued to the recorder under its {@link #frameCounter() frame counter}.
+     * The run is therefore reproducible and its output independent of the machine's load.
+     * <br>
+     * Works with and without a window. The clocks must not be running, they can be stopped earlier with {@link #stopClocks()}.
+     * @param frames number of frames to render
+     * @throws IllegalArgumentException if frames count is less than 1
+     * @throws IllegalStateException if the clocks are running
+     * @see #setRendererUpdaterate(int)
+     */
+    public void renderFrames(int frames) {
+        if (frames < 1) throw new IllegalArgumentException("Frames count less than 1");
+        addRenderClock();
+        if (!chronos.step(renderClock, frames))
+            throw new IllegalStateException("Clocks are running");
+    }
+
+    /**
+     * Combines the layers and repaints the changed region of the viewport.
+     * Unchanged frames are not repainted.
+     */
+    void render() {
+        boolean changed;
+        if (chronos.isConcurrent()) {
+            renderer.releaseSnapshot();
+            chronos.publish();
+            changed = renderer.combineSnapshot();
+        } else {
+            changed = renderer.combineLayers();
+        }
+        if (changed && window != null)
+            window.draw(renderer.getDirtyBounds());
     }
 
     /**
@@ -257,7 +523,10 @@ public class Argon {
     public void showAndStart() {
         if (RENDER_UPDATERATE == 0) RENDER_UPDATERATE = 60;
         show();
-        window.chronosToggle.switchOn(true);
+        if (window != null)
+            window.chronosToggle.switchOn(true);
+        else
+            chronos.start();
     }
 
     /**
@@ -277,7 +546,8 @@ public class Argon {
      * Analogous to pressing UI Start button.
      */
     public void startClocks() {
-        window.chronosToggle.switchOff(false);
+        if (window != null)
+            window.chronosToggle.switchOff(false);
         chronos.start();
     }
 
@@ -286,7 +556,8 @@ public class Argon {
      * Analogous to pressing UI Pause button.
      */
     public void stopClocks() {
-        window.chronosToggle.switchOff(false);
+        if (window != null)
+            window.chronosToggle.switchOff(false);
         chronos.stop();
     }
 
@@ -313,20 +584,27 @@ public class Argon {
         recorder = new Recorder(bufferSize, writingThreads, clearingThreads, outFolder);
     }
 
-    void startRecording() {
-        chronos.stop();
+    /**
+     * Starts the recorder, which queues every rendered frame.
+     * Frames are queued by the render clock right after they are rendered, also when the clocks are already running.
+     * Unlike the UI Start recording button, the clocks are not started, use {@link #startClocks()} or {@link #renderFrames(int)}.
+     * @throws IllegalStateException if the recorder has not been set up
+     * @see #setupRecorder(int, int, int, String)
+     */
+    public void startRecording() {
+        if (recorder == null)
+            throw new IllegalStateException("Recorder is not set up");
+        // Frames are recorded by the render clock, which has to be added first
+        addRenderClock();
         recorder.start();
         RECORDING_FRAME_COUNTER = 0;
-        chronos.addClock("Recording", () -> {
+        // A running render clock picks up the recording at its next tick
+        recordingClock = () -> {
             // Queue frame
             try {
-                BufferedImage copy = new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_ARGB);
-                Graphics2D g = copy.createGraphics();
-                g.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-                g.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-                g.setBackground(new Color(0, 0, 0, 0));
-                g.drawImage(renderer.getRenderImage(), 0, 0, null);
-                g.dispose();
+                // The last rendered frame is stable until the next render, it is copied into a recycled image for the writers
+                BufferedImage copy = recorder.obtainImage(canvasWidth, canvasHeight, renderer.getImageType());
+                renderer.copyRenderImage(copy);
                 recorder.queue(copy, FRAME_COUNTER);
             } catch (InterruptedException e) {
                 System.err.println("Queue error at frame " + FRAME_COUNTER);
@@ -343,14 +621,12 @@ public class Argon {
                 recorder.waitForBuffer(true);
                 System.out.println("Resuming");
 
-                recorder = new Recorder(bufferSize, threads, recorder.getClearingThreads(), outFolder);
+                recorder = new Recorder(bufferSize, threads, recorder.getClearingThreads(), outFolder, recorder.isVirtual());
                 recorder.start();
             }
 
             RECORDING_FRAME_COUNTER++;
-        }, RENDER_UPDATERATE);
-
-        chronos.start();
+        };
     }
 
     /**
@@ -358,10 +634,12 @@ public class Argon {
      * The method waits until the buffer is cleared.
      * Analogous to pressing UI Stop recoding button.
      */
-    void stopRecording() {
-        window.stopRecordingDecoration();
+    public void stopRecording() {
+        if (window != null)
+            window.stopRecordingDecoration();
         if (recorder == null) return;
         if (!recorder.isRecording()) return;
+        recordingClock = null;
         chronos.stop();
         RECORDING_FRAME_COUNTER = 0;
         RECORDER_FLAG = true;
@@ -370,8 +648,6 @@ public class Argon {
         System.out.println("Complete");
         recorder.stop();
         recorder.reset();
-        chronos.stop();
-        chronos.removeClock(chronos.getClocksCount()-1);
     }
 
     /**
@@ -426,7 +702,9 @@ class ArgonInterface implements WindowListener, ChronosListener, VariableListene
     public void capture() {
         argon.chronos.stop();
         try {
-            ImageIO.write(argon.renderer.getRenderImage(), "png", new File(System.currentTimeMillis() + ".png"));
+            BufferedImage image = new BufferedImage(argon.canvasWidth, argon.canvasHeight, argon.renderer.getImageType());
+            argon.renderer.copyRenderImage(image);
+            ImageIO.write(image, "png", new File(System.currentTimeMillis() + ".png"));
         } catch (IOException e) {
             System.err.println("Capture error");
         }
@@ -436,6 +714,7 @@ class ArgonInterface implements WindowListener, ChronosListener, VariableListene
     @Override
     public void startRecording() {
         argon.startRecording();
+        argon.chronos.start();
     }
     @Override
     public void stopRecording() {
@@ -449,8 +728,7 @@ class ArgonInterface implements WindowListener, ChronosListener, VariableListene
                     (int) Calc.map(x, 0, argon.window.getWidth(), 0, argon.canvasWidth),
                     (int) Calc.map(y, 0, argon.window.getHeight(), 0, argon.canvasHeight));
         if (!argon.chronos.isRunning())
-            argon.renderer.combineLayers();
-            argon.window.draw();
+            argon.render();
     }
 
     @Override
@@ -459,15 +737,14 @@ class ArgonInterface implements WindowListener, ChronosListener, VariableListene
             listener.windowMouseMoved(
                     (int) Calc.map(x, 0, argon.window.getWidth(), 0, argon.canvasWidth),
                     (int) Calc.map(y, 0, argon.window.getHeight(), 0, argon.canvasHeight));
-        if (!argon.chronos.isRunning()) {
-            argon.renderer.combineLayers();
-            argon.window.draw();
-        }
+        if (!argon.chronos.isRunning())
+            argon.render();
     }
 
     @Override
     public void secondsTimer(String[] clockNames, int[] callCounters, float[] avgExecTimes) {
-        argon.window.updateSceneTimes(clockNames, callCounters, avgExecTimes);
+        if (argon.window != null)
+            argon.window.updateSceneTimes(clockNames, callCounters, avgExecTimes);
         if (argon.recorder != null) {
             if (argon.recorder.isRecording()) {
                 System.out.println(String.format("%.1f", argon.recorder.getBufferUsage()*100) + "% buffer usage");
@@ -475,13 +752,17 @@ class ArgonInterface implements WindowListener, ChronosListener, VariableListene
         }
     }
 
+    @Override
+    public void clockStats(String[] clockNames, ClockStats[] stats) {
+        if (argon.window != null)
+            argon.window.updateClockStats(clockNames, stats);
+    }
+
     @Override
     public void valueChanged(Object oldValue, Object currentValue) {
         for (ArgonListener listener : argon.argonListeners)
             listener.variableUpdated();
-        if (!argon.chronos.isRunning()) {
-            argon.renderer.combineLayers();
-            argon.window.draw();
-        }
+        if (!argon.chronos.isRunning())
+            argon.render();
     }
 }
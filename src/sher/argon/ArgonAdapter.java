@@ -13,4 +13,6 @@ public abstract class ArgonAdapter implements ArgonListener {
     public void windowMouseClick(int x, int y) {}
     @Override
     public void windowMouseMoved(int x, int y) {}
+    @Override
+    public void onRender(double alpha) {}
 }
@@ -33,4 +33,17 @@ interface ArgonListener {
      * @param y canvas y coordinate
      */
     void windowMouseMoved(int x, int y);
+
+    /**
+     * Is called on every rendered frame, right before the layers are combined.
+     * With sequential clocks, no other clock ticks during this call.
+     * With {@link Argon#setMultithreadedClocks(boolean) multithreaded clocks}, only the clocks of the "Render" group are held back, the other groups keep ticking,
+     * and the layers are composited from a snapshot taken right after this call if no other clock is mid-tick, or else from the last snapshot taken between ticks.
+     * <br>
+     * With {@link Argon#setFixedTimestep(boolean) fixed timestep}, alpha is the fraction of a step elapsed since the last simulation tick,
+     * so the drawn state can be interpolated between the previous and the current tick as <code>previous + (current - previous) * alpha</code>.
+     * Otherwise, alpha is always 1.
+     * @param alpha interpolation alpha in range [0-1]
+     */
+    void onRender(double alpha);
 }
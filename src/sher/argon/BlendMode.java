@@ -0,0 +1,33 @@
+package sher.argon;
+
+/**
+ * Blend mode of a {@link Layer layer}, combining the layer's colors with the layers below.
+ * The result is placed over the layers below with the layer's alpha and opacity.
+ * @see Layer#setBlendMode(BlendMode)
+ */
+public enum BlendMode {
+    /**
+     * Layer's color replaces the color below
+     */
+    NORMAL,
+    /**
+     * Sum of the colors, clipped to white
+     */
+    ADD,
+    /**
+     * Product of the colors, darkens
+     */
+    MULTIPLY,
+    /**
+     * Inverted product of the inverted colors, lightens
+     */
+    SCREEN,
+    /**
+     * Maximum of the color components
+     */
+    MAX,
+    /**
+     * Minimum of the color components
+     */
+    MIN
+}
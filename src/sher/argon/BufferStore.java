@@ -0,0 +1,56 @@
+package sher.argon;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Row-major pixel storage in an {@link IntBuffer}, usually direct or memory-mapped.
+ */
+class BufferStore implements PixelStore {
+    final IntBuffer pixels;
+    final int width;
+    // Row of the fill color, written with bulk puts
+    int[] row;
+
+    BufferStore(IntBuffer pixels, int width) {
+        this.pixels = pixels;
+        this.width = width;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        return pixels.get(x + width*y);
+    }
+
+    @Override
+    public void set(int x, int y, int rgb) {
+        pixels.put(x + width*y, rgb);
+    }
+
+    @Override
+    public void readSpan(int x, int y, int length, int[] dst, int offset) {
+        pixels.get(x + width*y, dst, offset, length);
+    }
+
+    @Override
+    public void writeSpan(int x, int y, int[] src, int offset, int length) {
+        pixels.put(x + width*y, src, offset, length);
+    }
+
+    @Override
+    public void fillSpan(int x, int y, int length, int rgb) {
+        int i = x + width*y;
+        for (int end = i + length; i < end; i++)
+            pixels.put(i, rgb);
+    }
+
+    @Override
+    public void fill(int rgb) {
+        if (row == null)
+            row = new int[width];
+        if (row[0] != rgb)
+            Arrays.fill(row, rgb);
+        for (int i = 0; i < pixels.limit(); i += width)
+            pixels.put(i, row, 0, width);
+    }
+}
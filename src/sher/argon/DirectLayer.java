@@ -0,0 +1,55 @@
+package sher.argon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Layer whose pixels are held outside the Java heap, in a direct or memory-mapped buffer.
+ * Large off-heap canvases do not add to garbage collection pauses, and a mapped layer can be shared with other processes without copying.
+ * <br>
+ * The layer has no {@link #raster}, pixels are accessed through the layer's methods or the {@link #pixels} buffer.
+ * The buffer holds row-major ARGB integers in the native byte order, premultiplied by alpha for {@link #isPremultiplied() premultiplied} layers.
+ * Drawing with {@link #g graphics} works, but is considerably slower than on a regular layer.
+ */
+public class DirectLayer extends StoredLayer {
+    /**
+     * Direct pixel buffer access.
+     * Writes to the buffer are not tracked, see {@link #markDirty(int, int, int, int)}.
+     */
+    public final IntBuffer pixels;
+
+    DirectLayer(int width, int height, boolean render) {
+        this(width, height, render, false);
+    }
+
+    DirectLayer(int width, int height, boolean render, boolean premultiplied) {
+        this(width, height, render, premultiplied, ByteBuffer.allocateDirect(byteSize(width, height)).order(ByteOrder.nativeOrder()).asIntBuffer());
+    }
+
+    DirectLayer(int width, int height, boolean render, boolean premultiplied, IntBuffer pixels) {
+        super(width, height, render, premultiplied, new BufferStore(pixels, width));
+        this.pixels = pixels;
+    }
+
+    /**
+     * Maps the file as the layer's pixels, the file is created or extended if needed.
+     */
+    static DirectLayer map(int width, int height, boolean render, boolean premultiplied, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            IntBuffer pixels = channel.map(FileChannel.MapMode.READ_WRITE, 0, byteSize(width, height)).order(ByteOrder.nativeOrder()).asIntBuffer();
+            return new DirectLayer(width, height, render, premultiplied, pixels);
+        }
+    }
+
+    static int byteSize(int width, int height) {
+        long size = 4L * width * height;
+        if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("Illegal dimensions");
+        return (int) size;
+    }
+}
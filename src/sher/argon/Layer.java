@@ -1,16 +1,39 @@
 package sher.argon;
 
+import sher.argon.parallel.WorkerPool;
+import sher.argon.util.Gradient;
+
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Layer provides drawing canvas and methods to interact with it.
  * It is based on Java's {@link BufferedImage} and {@link Graphics2D} for more complex shapes.
  * The image's pixel raster is exposed and can be accessed directly.
  * Note: The layer's alpha component is 0 by default.
+ * <br>
+ * The layer keeps track of the regions written through its methods and {@link #g graphics} in a grid of {@link #TILE_SIZE tiles}, which lets the renderer recomposite only the changed parts of the canvas.
+ * Writes made directly to the {@link #raster} are not tracked and must be followed by {@link #markDirty(int, int, int, int)} or {@link #markDirty()}.
  */
 public class Layer {
+    /**
+     * Dirty tile size as a power of two
+     */
+    public static final int TILE_SHIFT = 6;
+    /**
+     * Width and height of a dirty tile in pixels
+     */
+    public static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    // Layers at least this large are filled in parallel
+    static final int PARALLEL_FILL_PIXELS = 1 << 18;
+
     int width, height;
 
     /**
@@ -24,26 +47,57 @@ public class Layer {
     public final Graphics2D g;
 
     /**
-     * Direct image raster access
+     * Direct image raster access.
+     * Writes to the raster are not tracked, see {@link #markDirty(int, int, int, int)}.
+     * The raster is null for layers not backed by a single array, such as {@link TiledLayer}.
+     * Colors of {@link #isPremultiplied() premultiplied} layers are stored premultiplied by alpha.
      */
     public final int[] raster;
 
     boolean render;
+    // Raster holds colors premultiplied by alpha
+    final boolean premultiplied;
+    BlendMode blendMode;
+    float opacity;
+
+    int tileColumns, tileRows;
+    // Plain flags: concurrent writers only ever set them, so no update can be lost
+    boolean[] dirtyTiles;
+    long version;
+    // Tiles written to since the last fill, set together with the dirty tiles but only reset by fills
+    boolean[] writtenTiles;
 
     Layer(int width, int height, boolean render) {
+        this(width, height, render, false);
+    }
+
+    Layer(int width, int height, boolean render, boolean premultiplied) {
+        this(width, height, render, new BufferedImage(width, height, premultiplied ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_ARGB));
+    }
+
+    Layer(int width, int height, boolean render, BufferedImage image) {
         this.width = width;
         this.height = height;
         this.render = render;
+        premultiplied = image.isAlphaPremultiplied();
+        blendMode = BlendMode.NORMAL;
+        opacity = 1f;
 
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        g = image.createGraphics();
-        g.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-        g.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-//        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC));
-        g.setBackground(new Color(0, 0, 0, 0));
+        tileColumns = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+        tileRows = (height + TILE_SIZE - 1) >> TILE_SHIFT;
+        dirtyTiles = new boolean[tileColumns * tileRows];
+        writtenTiles = new boolean[tileColumns * tileRows];
+
+        this.image = image;
+        Graphics2D imageGraphics = image.createGraphics();
+        imageGraphics.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+        imageGraphics.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+//        imageGraphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC));
+        imageGraphics.setBackground(new Color(0, 0, 0, 0));
+        g = new LayerGraphics(this, imageGraphics);
 
         // Accessing raster directly is by far the fastest way of interacting with image on pixel-by-pixel basis
-        raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        raster = (image.getRaster().getDataBuffer() instanceof DataBufferInt dataBuffer) ? dataBuffer.getData() : null;
     }
 
     /**
@@ -70,6 +124,54 @@ public class Layer {
         return render;
     }
 
+    /**
+     * Returns if the layer's {@link #raster} holds colors premultiplied by alpha.
+     * The layer's pixel methods take and return regular colors regardless of the format, but the color components of fully transparent pixels are not kept.
+     * @return If layer is premultiplied
+     */
+    public boolean isPremultiplied() {
+        return premultiplied;
+    }
+
+    /**
+     * Sets how the layer's colors are combined with the layers below.
+     * Default mode is {@link BlendMode#NORMAL}.
+     * @param blendMode {@link BlendMode blend mode}
+     */
+    public void setBlendMode(BlendMode blendMode) {
+        if (blendMode == null) throw new IllegalArgumentException("Blend mode is null");
+        this.blendMode = blendMode;
+        invalidate();
+    }
+
+    /**
+     * Returns the layer's blend mode.
+     * @return {@link BlendMode blend mode}
+     */
+    public BlendMode getBlendMode() {
+        return blendMode;
+    }
+
+    /**
+     * Sets the layer's opacity, which multiplies the alpha of every pixel when rendered.
+     * Default opacity is 1.
+     * @param opacity opacity in range [0-1]
+     * @throws IllegalArgumentException if the opacity is out of range
+     */
+    public void setOpacity(float opacity) {
+        if (opacity < 0f || opacity > 1f) throw new IllegalArgumentException("Opacity must be in range [0-1]");
+        this.opacity = opacity;
+        invalidate();
+    }
+
+    /**
+     * Returns the layer's opacity.
+     * @return opacity in range [0-1]
+     */
+    public float getOpacity() {
+        return opacity;
+    }
+
     // Pixel access
     /**
      * Returns rgb integer from the raster.
@@ -81,7 +183,7 @@ public class Layer {
     public int getRGB(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return 0;
-        return raster[x + width*y];
+        return fromRaster(raster[x + width*y]);
     }
     /**
      * Returns red color component.
@@ -93,7 +195,7 @@ public class Layer {
     public int getRed(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return 0;
-        return (raster[x + width*y] >> 16) & 0xFF;
+        return (fromRaster(raster[x + width*y]) >> 16) & 0xFF;
     }
     /**
      * Returns green color component.
@@ -105,7 +207,7 @@ public class Layer {
     public int getGreen(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return 0;
-        return (raster[x + width*y] >> 8) & 0xFF;
+        return (fromRaster(raster[x + width*y]) >> 8) & 0xFF;
     }
     /**
      * Returns blue color component.
@@ -117,7 +219,7 @@ public class Layer {
     public int getBlue(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return 0;
-        return raster[x + width*y] & 0xFF;
+        return fromRaster(raster[x + width*y]) & 0xFF;
     }
     /**
      * Returns alpha color component.
@@ -129,7 +231,7 @@ public class Layer {
     public int getAlpha(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return 0;
-        return (raster[x + width*y] >> 24) & 0xFF;
+        return (fromRaster(raster[x + width*y]) >> 24) & 0xFF;
     }
     /**
      * Computes the true monochromatic value at given coordinate
@@ -142,7 +244,7 @@ public class Layer {
     public int getValue(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return 0;
-        int p = raster[x + width*y];
+        int p = fromRaster(raster[x + width*y]);
         int r = (p>>16)&0xFF;
         int g = (p>>8)&0xFF;
         int b = p&0xFF;
@@ -160,7 +262,7 @@ public class Layer {
     public Color getColor(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return new Color(0, 0, 0, 0);
-        return new Color(raster[x + width*y], true);
+        return new Color(fromRaster(raster[x + width*y]), true);
     }
 
     /**
@@ -174,7 +276,8 @@ public class Layer {
     public void setRGB(int x, int y, int rgb) {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return;
-        raster[x+width*y] = rgb;
+        raster[x+width*y] = toRaster(rgb);
+        touch(x, y);
     }
     /**
      * Sets red color component at given coordinate.
@@ -187,10 +290,11 @@ public class Layer {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return;
         int i = x+width*y;
-        int p = raster[i];
+        int p = fromRaster(raster[i]);
         p &= ~(255 << 16);
         p |= r << 16;
-        raster[i] = p;
+        raster[i] = toRaster(p);
+        touch(x, y);
     }
     /**
      * Sets green color component at given coordinate.
@@ -203,10 +307,11 @@ public class Layer {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return;
         int i = x+width*y;
-        int p = raster[i];
+        int p = fromRaster(raster[i]);
         p &= ~(255 << 8);
         p |= g << 8;
-        raster[i] = p;
+        raster[i] = toRaster(p);
+        touch(x, y);
     }
     /**
      * Sets blue color component at given coordinate.
@@ -219,10 +324,11 @@ public class Layer {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return;
         int i = x+width*y;
-        int p = raster[i];
+        int p = fromRaster(raster[i]);
         p &= ~(255);
         p |= b;
-        raster[i] = p;
+        raster[i] = toRaster(p);
+        touch(x, y);
     }
     /**
      * Sets alpha component at given coordinate.
@@ -235,10 +341,11 @@ public class Layer {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return;
         int i = x+width*y;
-        int p = raster[i];
+        int p = fromRaster(raster[i]);
         p &= ~(255 << 24);
         p |= alpha << 24;
-        raster[i] = p;
+        raster[i] = toRaster(p);
+        touch(x, y);
     }
     /**
      * Sets monochromatic value as all 3 color components at given coordinate.
@@ -256,7 +363,8 @@ public class Layer {
         rgb |= value << 16;
         rgb |= value << 8;
         rgb |= value;
-        raster[x+width*y] = rgb;
+        raster[x+width*y] = toRaster(rgb);
+        touch(x, y);
     }
     /**
      * Sets monochromatic value as all 3 color components at given coordinate.
@@ -286,7 +394,175 @@ public class Layer {
         rgb |= color.getRed() << 16;
         rgb |= color.getGreen() << 8;
         rgb |= color.getBlue();
-        raster[x+width*y] = rgb;
+        raster[x+width*y] = toRaster(rgb);
+        touch(x, y);
+    }
+
+    // Bulk pixel access
+    /**
+     * Fills the rectangle with the given rgb color.
+     * The rectangle is clipped to the layer's bounds once, so this is much faster than setting the pixels one by one.
+     * @param x rectangle's left coordinate
+     * @param y rectangle's top coordinate
+     * @param width rectangle's width
+     * @param height rectangle's height
+     * @param rgb integer rgb
+     */
+    public void fillRect(int x, int y, int width, int height, int rgb) {
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + width, this.width);
+        int y1 = Math.min(y + height, this.height);
+        if (x0 >= x1 || y0 >= y1)
+            return;
+        for (int row = y0; row < y1; row++)
+            fillSpan(x0, row, x1 - x0, toRaster(rgb));
+        markDirty(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Draws a horizontal line of the given length starting at the coordinate.
+     * The line is clipped to the layer's bounds.
+     * @param x line's left coordinate
+     * @param y line's row
+     * @param length line's length
+     * @param rgb integer rgb
+     */
+    public void drawHLine(int x, int y, int length, int rgb) {
+        fillRect(x, y, length, 1, rgb);
+    }
+
+    /**
+     * Draws a vertical line of the given length starting at the coordinate.
+     * The line is clipped to the layer's bounds.
+     * @param x line's column
+     * @param y line's top coordinate
+     * @param length line's length
+     * @param rgb integer rgb
+     */
+    public void drawVLine(int x, int y, int length, int rgb) {
+        int y0 = Math.max(y, 0);
+        int y1 = Math.min(y + length, height);
+        if (x < 0 || x >= width || y0 >= y1)
+            return;
+        fillColumn(x, y0, y1, toRaster(rgb));
+        markDirty(x, y0, 1, y1 - y0);
+    }
+
+    /**
+     * Copies the pixels from the array into the row, starting at the coordinate.
+     * The span is clipped to the layer's bounds.
+     * The pixels are copied as raster values, premultiplied for {@link #isPremultiplied() premultiplied} layers.
+     * @param x span's left coordinate
+     * @param y span's row
+     * @param src source array of rgb integers
+     * @param offset source offset
+     * @param length span's length
+     */
+    public void setSpan(int x, int y, int[] src, int offset, int length) {
+        int x0 = Math.max(x, 0);
+        int x1 = Math.min(x + length, width);
+        if (y < 0 || y >= height || x0 >= x1)
+            return;
+        writeSpan(x0, y, src, offset + x0 - x, x1 - x0);
+        markDirty(x0, y, x1 - x0, 1);
+    }
+
+    /**
+     * Copies the pixels from the array into the row, starting at its left edge.
+     * The span is clipped to the layer's bounds.
+     * @param y row
+     * @param src source array of rgb integers
+     * @param offset source offset
+     * @param length span's length
+     */
+    public void setRow(int y, int[] src, int offset, int length) {
+        setSpan(0, y, src, offset, length);
+    }
+
+    /**
+     * Copies the region of the source layer to the given coordinate, replacing the pixels.
+     * The region is clipped to both layers' bounds. The source can be this layer, overlapping regions are copied correctly.
+     * The pixels are copied as raster values, so both layers should be equally {@link #isPremultiplied() premultiplied}.
+     * @param source source layer
+     * @param sx region's left coordinate in the source
+     * @param sy region's top coordinate in the source
+     * @param width region's width
+     * @param height region's height
+     * @param dx destination left coordinate
+     * @param dy destination top coordinate
+     */
+    public void blit(Layer source, int sx, int sy, int width, int height, int dx, int dy) {
+        // Clip to the source, then to the destination
+        int left = Math.max(Math.max(-sx, -dx), 0);
+        int top = Math.max(Math.max(-sy, -dy), 0);
+        int right = Math.min(Math.min(width, source.width - sx), this.width - dx);
+        int bottom = Math.min(Math.min(height, source.height - sy), this.height - dy);
+        if (left >= right || top >= bottom)
+            return;
+
+        int length = right - left;
+        int[] row = (raster != null && source != this) ? raster : new int[length];
+        // Rows are copied bottom up when shifting down within the same layer
+        boolean reverse = source == this && dy > sy;
+        for (int r = top; r < bottom; r++) {
+            int y = reverse ? bottom - 1 - (r - top) : r;
+            if (row == raster) {
+                source.readSpan(sx + left, sy + y, length, raster, dx + left + this.width*(dy + y));
+            } else {
+                source.readSpan(sx + left, sy + y, length, row, 0);
+                writeSpan(dx + left, dy + y, row, 0, length);
+            }
+        }
+        markDirty(dx + left, dy + top, length, bottom - top);
+    }
+
+    /**
+     * Copies the region of the source layer to the given coordinate, replacing the pixels.
+     * The region is clipped to both layers' bounds.
+     * @param source source layer
+     * @param region region in the source
+     * @param dx destination left coordinate
+     * @param dy destination top coordinate
+     */
+    public void blit(Layer source, Rectangle region, int dx, int dy) {
+        blit(source, region.x, region.y, region.width, region.height, dx, dy);
+    }
+
+    /**
+     * Copies a horizontal span of raster values into the array.
+     * The span must lie within the layer's bounds.
+     * @param x span's left coordinate
+     * @param y span's row
+     * @param length span's length
+     * @param dst destination array
+     * @param offset destination offset
+     */
+    public void readSpan(int x, int y, int length, int[] dst, int offset) {
+        System.arraycopy(raster, x + width*y, dst, offset, length);
+    }
+
+    // Conversion between regular colors and raster values
+    int toRaster(int rgb) {
+        return premultiplied ? Gradient.premultiply(rgb) : rgb;
+    }
+    int fromRaster(int value) {
+        return premultiplied ? Gradient.unpremultiply(value) : value;
+    }
+
+    // Unchecked span writes with raster values, the coordinates are clipped by the callers
+    void writeSpan(int x, int y, int[] src, int offset, int length) {
+        System.arraycopy(src, offset, raster, x + width*y, length);
+    }
+    void fillSpan(int x, int y, int length, int rgb) {
+        int i = x + width*y;
+        Arrays.fill(raster, i, i + length, rgb);
+    }
+    void fillColumn(int x, int y0, int y1, int rgb) {
+        int[] raster = this.raster;
+        int end = x + width*y1;
+        for (int i = x + width*y0; i < end; i += width)
+            raster[i] = rgb;
     }
 
     // Misc
@@ -295,18 +571,18 @@ public class Layer {
      */
     public void clear() {
         // Just to be clear (pun intended): g.clearRect() function is for some reason slower then iterating through the raster, thus this method is preferred.
-        for (int i = 0; i < raster.length; i++)
-            raster[i] = 0;
+        fill(0);
     }
 
     /**
      * Fills the layer with the given rgb color.
+     * Large layers are filled in parallel on the shared {@link WorkerPool worker pool}.
      * @param rgb integer rgb
      */
     public void fill(int rgb) {
         // Why not g.fillRect? Same reason as clear() method above.
-        for (int i = 0; i < raster.length; i++)
-            raster[i] = rgb;
+        fill(raster, toRaster(rgb));
+        filled();
     }
 
     /**
@@ -314,9 +590,177 @@ public class Layer {
      * @param color {@link Color color} object
      */
     public void fill(Color color) {
-        // Why not g.fillRect? Same reason as clear() method above.
-        int rgb = color.getRGB();
-        for (int i = 0; i < raster.length; i++)
-            raster[i] = rgb;
+        fill(color.getRGB());
+    }
+
+    /**
+     * Clears only the tiles written to since the layer was last filled or cleared.
+     * Equivalent to {@link #clear()} if the layer was last cleared, but much cheaper for sparse drawings.
+     */
+    public void clearChanged() {
+        fillChanged(0);
+    }
+
+    /**
+     * Fills only the tiles written to since the layer was last filled or cleared.
+     * Equivalent to {@link #fill(int)} if the layer was last filled with the same color, but much cheaper for sparse drawings.
+     * Writes made directly to the {@link #raster} are only covered if they were {@link #markDirty(int, int, int, int) marked}.
+     * @param rgb integer rgb
+     */
+    public void fillChanged(int rgb) {
+        rgb = toRaster(rgb);
+        boolean changed = false;
+        for (int ty = 0; ty < tileRows; ty++) {
+            int tileRow = ty * tileColumns;
+            int y0 = ty << TILE_SHIFT;
+            int y1 = Math.min(y0 + TILE_SIZE, height);
+            int tx = 0;
+            while (tx < tileColumns) {
+                if (!writtenTiles[tileRow + tx]) {
+                    tx++;
+                    continue;
+                }
+                // Neighbouring tiles are filled as a single span
+                int start = tx;
+                for (; tx < tileColumns && writtenTiles[tileRow + tx]; tx++) {
+                    int t = tileRow + tx;
+                    writtenTiles[t] = false;
+                    if (!dirtyTiles[t]) {
+                        dirtyTiles[t] = true;
+                        changed = true;
+                    }
+                }
+                int x0 = start << TILE_SHIFT;
+                int x1 = Math.min(tx << TILE_SHIFT, width);
+                for (int y = y0; y < y1; y++)
+                    fillSpan(x0, y, x1 - x0, rgb);
+            }
+        }
+        if (changed)
+            version++;
+    }
+
+    /**
+     * Fills the array, splitting large arrays into segments filled in parallel.
+     */
+    static void fill(int[] raster, int rgb) {
+        ForkJoinPool pool = WorkerPool.get();
+        int segments = Math.min(pool.getParallelism(), raster.length / PARALLEL_FILL_PIXELS);
+        if (segments < 2) {
+            Arrays.fill(raster, rgb);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(segments);
+        for (int s = 0; s < segments; s++) {
+            int from = (int) ((long) raster.length * s / segments);
+            int to = (int) ((long) raster.length * (s+1) / segments);
+            tasks.add(() -> {
+                Arrays.fill(raster, from, to, rgb);
+                return null;
+            });
+        }
+        pool.invokeAll(tasks);
+    }
+
+    // Marks the whole layer as changed, with nothing written on top of the fill
+    void filled() {
+        invalidate();
+        Arrays.fill(writtenTiles, false);
+    }
+
+    // Marks the whole layer for recompositing without marking its tiles as written to
+    void invalidate() {
+        boolean changed = false;
+        for (int t = 0; t < dirtyTiles.length; t++) {
+            if (!dirtyTiles[t]) {
+                dirtyTiles[t] = true;
+                changed = true;
+            }
+        }
+        if (changed)
+            version++;
+    }
+
+    // Change tracking
+    /**
+     * Marks the rectangular region as changed.
+     * Required after writing to the {@link #raster} directly, otherwise the change might not be rendered.
+     * The region is clipped to the layer's bounds.
+     * @param x region's left coordinate
+     * @param y region's top coordinate
+     * @param width region's width
+     * @param height region's height
+     */
+    public void markDirty(int x, int y, int width, int height) {
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + width, this.width);
+        int y1 = Math.min(y + height, this.height);
+        if (x0 >= x1 || y0 >= y1)
+            return;
+
+        int tx0 = x0 >> TILE_SHIFT, tx1 = (x1 - 1) >> TILE_SHIFT;
+        int ty0 = y0 >> TILE_SHIFT, ty1 = (y1 - 1) >> TILE_SHIFT;
+        boolean changed = false;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int t = ty * tileColumns + tx;
+                writtenTiles[t] = true;
+                if (!dirtyTiles[t]) {
+                    dirtyTiles[t] = true;
+                    changed = true;
+                }
+            }
+        }
+        if (changed)
+            version++;
+    }
+
+    /**
+     * Marks the entire layer as changed.
+     * Required after writing to the {@link #raster} directly, otherwise the change might not be rendered.
+     */
+    public void markDirty() {
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * Returns the layer's modification counter.
+     * The counter changes whenever the layer is written to after its changes were last collected by the renderer, so equal values mean unchanged content.
+     * @return modification counter
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Merges the layer's changed tiles into the mask and marks the layer as unchanged.
+     * The mask is a row-major grid of {@link #TILE_SIZE tiles} covering the layer.
+     * <br>
+     * The method is used by the renderer and must not be called concurrently with writes to the layer.
+     * @param mask tile mask of length {@code ceil(width/TILE_SIZE) * ceil(height/TILE_SIZE)}
+     * @return true if any tile was changed
+     */
+    public boolean collectDirtyTiles(boolean[] mask) {
+        boolean dirty = false;
+        for (int t = 0; t < dirtyTiles.length; t++) {
+            if (dirtyTiles[t]) {
+                mask[t] = true;
+                dirtyTiles[t] = false;
+                dirty = true;
+            }
+        }
+        return dirty;
+    }
+
+    void touch(int x, int y) {
+        int t = (y >> TILE_SHIFT) * tileColumns + (x >> TILE_SHIFT);
+        // Checking first keeps the cache line shared between threads writing to the same tile
+        if (!dirtyTiles[t]) {
+            dirtyTiles[t] = true;
+            version++;
+        }
+        if (!writtenTiles[t])
+            writtenTiles[t] = true;
     }
 }
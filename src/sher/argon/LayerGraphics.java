@@ -0,0 +1,481 @@
+package sher.argon;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.Map;
+
+/**
+ * {@link Graphics2D} wrapper that marks the {@link Layer layer's} regions touched by drawing operations.
+ * Every call is delegated to the image's graphics, the bounds are estimated conservatively.
+ */
+class LayerGraphics extends Graphics2D {
+    // Extra margin for antialiasing and rounding
+    static final double PAD = 1;
+
+    final Layer layer;
+    final Graphics2D g;
+
+    // Cached user-to-device transform, refreshed whenever it changes
+    AffineTransform transform;
+    boolean identity;
+    final double[] corners = new double[8];
+
+    LayerGraphics(Layer layer, Graphics2D g) {
+        this.layer = layer;
+        this.g = g;
+        updateTransform();
+    }
+
+    void updateTransform() {
+        transform = g.getTransform();
+        identity = transform.isIdentity();
+    }
+
+    // Marks user-space rectangle
+    void mark(double x, double y, double w, double h, double pad) {
+        if (w < 0) {
+            x += w;
+            w = -w;
+        }
+        if (h < 0) {
+            y += h;
+            h = -h;
+        }
+        double x0 = x - pad, y0 = y - pad, x1 = x + w + pad, y1 = y + h + pad;
+        if (!identity) {
+            corners[0] = x0; corners[1] = y0;
+            corners[2] = x1; corners[3] = y0;
+            corners[4] = x0; corners[5] = y1;
+            corners[6] = x1; corners[7] = y1;
+            transform.transform(corners, 0, corners, 0, 4);
+            x0 = x1 = corners[0];
+            y0 = y1 = corners[1];
+            for (int i = 2; i < 8; i += 2) {
+                x0 = Math.min(x0, corners[i]);
+                x1 = Math.max(x1, corners[i]);
+                y0 = Math.min(y0, corners[i+1]);
+                y1 = Math.max(y1, corners[i+1]);
+            }
+        }
+        int ix0 = (int) Math.floor(x0) - 1;
+        int iy0 = (int) Math.floor(y0) - 1;
+        int ix1 = (int) Math.ceil(x1) + 1;
+        int iy1 = (int) Math.ceil(y1) + 1;
+        layer.markDirty(ix0, iy0, ix1 - ix0, iy1 - iy0);
+    }
+    void mark(Rectangle2D bounds, double pad) {
+        mark(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), pad);
+    }
+    void markFill(double x, double y, double w, double h) {
+        mark(x, y, w, h, PAD);
+    }
+    void markStroke(double x, double y, double w, double h) {
+        double pad = strokePad();
+        if (pad < 0)
+            mark(g.getStroke().createStrokedShape(new Rectangle2D.Double(x, y, w, h)).getBounds2D(), PAD);
+        else
+            mark(x, y, w, h, pad);
+    }
+
+    double strokePad() {
+        Stroke stroke = g.getStroke();
+        if (stroke instanceof BasicStroke basicStroke) {
+            double pad = basicStroke.getLineWidth() / 2;
+            if (basicStroke.getLineJoin() == BasicStroke.JOIN_MITER)
+                pad *= Math.max(basicStroke.getMiterLimit(), 1);
+            return pad + PAD;
+        }
+        return -1;
+    }
+
+    void markStroked(Shape shape) {
+        double pad = strokePad();
+        if (pad < 0)
+            mark(g.getStroke().createStrokedShape(shape).getBounds2D(), PAD);
+        else
+            mark(shape.getBounds2D(), pad);
+    }
+
+    void markImage(Image img, int x, int y) {
+        int w = img.getWidth(null);
+        int h = img.getHeight(null);
+        if (w < 0 || h < 0)
+            layer.markDirty();
+        else
+            markFill(x, y, w, h);
+    }
+
+    // Drawing
+    @Override
+    public void draw(Shape s) {
+        g.draw(s);
+        markStroked(s);
+    }
+    @Override
+    public void fill(Shape s) {
+        g.fill(s);
+        mark(s.getBounds2D(), PAD);
+    }
+
+    @Override
+    public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+        boolean result = g.drawImage(img, xform, obs);
+        int w = img.getWidth(null);
+        int h = img.getHeight(null);
+        if (w < 0 || h < 0)
+            layer.markDirty();
+        else
+            mark(xform.createTransformedShape(new Rectangle(w, h)).getBounds2D(), PAD);
+        return result;
+    }
+    @Override
+    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+        g.drawImage(img, op, x, y);
+        Rectangle2D bounds = (op != null) ? op.getBounds2D(img) : new Rectangle(img.getWidth(), img.getHeight());
+        markFill(x + bounds.getX(), y + bounds.getY(), bounds.getWidth(), bounds.getHeight());
+    }
+    @Override
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+        g.drawRenderedImage(img, xform);
+        mark(xform.createTransformedShape(new Rectangle(img.getMinX(), img.getMinY(), img.getWidth(), img.getHeight())).getBounds2D(), PAD);
+    }
+    @Override
+    public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+        g.drawRenderableImage(img, xform);
+        layer.markDirty();
+    }
+    @Override
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        boolean result = g.drawImage(img, x, y, observer);
+        markImage(img, x, y);
+        return result;
+    }
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+        boolean result = g.drawImage(img, x, y, width, height, observer);
+        markFill(x, y, width, height);
+        return result;
+    }
+    @Override
+    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        boolean result = g.drawImage(img, x, y, bgcolor, observer);
+        markImage(img, x, y);
+        return result;
+    }
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+        boolean result = g.drawImage(img, x, y, width, height, bgcolor, observer);
+        markFill(x, y, width, height);
+        return result;
+    }
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+        boolean result = g.drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, observer);
+        markFill(dx1, dy1, dx2 - dx1, dy2 - dy1);
+        return result;
+    }
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        boolean result = g.drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor, observer);
+        markFill(dx1, dy1, dx2 - dx1, dy2 - dy1);
+        return result;
+    }
+
+    @Override
+    public void drawString(String str, int x, int y) {
+        drawString(str, (float) x, (float) y);
+    }
+    @Override
+    public void drawString(String str, float x, float y) {
+        g.drawString(str, x, y);
+        Rectangle2D bounds = g.getFont().getStringBounds(str, g.getFontRenderContext());
+        // Logical bounds do not include italic overhangs
+        mark(x + bounds.getX(), y + bounds.getY(), bounds.getWidth(), bounds.getHeight(), g.getFont().getSize2D() / 4 + PAD);
+    }
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        g.drawString(iterator, x, y);
+        layer.markDirty();
+    }
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        g.drawString(iterator, x, y);
+        layer.markDirty();
+    }
+    @Override
+    public void drawGlyphVector(GlyphVector gv, float x, float y) {
+        g.drawGlyphVector(gv, x, y);
+        Rectangle2D bounds = gv.getVisualBounds();
+        markFill(x + bounds.getX(), y + bounds.getY(), bounds.getWidth(), bounds.getHeight());
+    }
+
+    @Override
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        g.copyArea(x, y, width, height, dx, dy);
+        markFill(x + dx, y + dy, width, height);
+    }
+    @Override
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        g.drawLine(x1, y1, x2, y2);
+        markStroke(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+    }
+    @Override
+    public void fillRect(int x, int y, int width, int height) {
+        g.fillRect(x, y, width, height);
+        markFill(x, y, width, height);
+    }
+    @Override
+    public void drawRect(int x, int y, int width, int height) {
+        g.drawRect(x, y, width, height);
+        markStroke(x, y, width, height);
+    }
+    @Override
+    public void clearRect(int x, int y, int width, int height) {
+        g.clearRect(x, y, width, height);
+        markFill(x, y, width, height);
+    }
+    @Override
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        g.drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+        markStroke(x, y, width, height);
+    }
+    @Override
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        g.fillRoundRect(x, y, width, height, arcWidth, arcHeight);
+        markFill(x, y, width, height);
+    }
+    @Override
+    public void drawOval(int x, int y, int width, int height) {
+        g.drawOval(x, y, width, height);
+        markStroke(x, y, width, height);
+    }
+    @Override
+    public void fillOval(int x, int y, int width, int height) {
+        g.fillOval(x, y, width, height);
+        markFill(x, y, width, height);
+    }
+    @Override
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        g.drawArc(x, y, width, height, startAngle, arcAngle);
+        markStroke(x, y, width, height);
+    }
+    @Override
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        g.fillArc(x, y, width, height, startAngle, arcAngle);
+        markFill(x, y, width, height);
+    }
+    @Override
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        g.drawPolyline(xPoints, yPoints, nPoints);
+        markPoints(xPoints, yPoints, nPoints, true);
+    }
+    @Override
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        g.drawPolygon(xPoints, yPoints, nPoints);
+        markPoints(xPoints, yPoints, nPoints, true);
+    }
+    @Override
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        g.fillPolygon(xPoints, yPoints, nPoints);
+        markPoints(xPoints, yPoints, nPoints, false);
+    }
+
+    void markPoints(int[] xPoints, int[] yPoints, int nPoints, boolean stroke) {
+        if (nPoints <= 0)
+            return;
+        int x0 = xPoints[0], x1 = x0, y0 = yPoints[0], y1 = y0;
+        for (int i = 1; i < nPoints; i++) {
+            x0 = Math.min(x0, xPoints[i]);
+            x1 = Math.max(x1, xPoints[i]);
+            y0 = Math.min(y0, yPoints[i]);
+            y1 = Math.max(y1, yPoints[i]);
+        }
+        if (stroke)
+            markStroke(x0, y0, x1 - x0, y1 - y0);
+        else
+            markFill(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    // Transform
+    @Override
+    public void translate(int x, int y) {
+        g.translate(x, y);
+        updateTransform();
+    }
+    @Override
+    public void translate(double tx, double ty) {
+        g.translate(tx, ty);
+        updateTransform();
+    }
+    @Override
+    public void rotate(double theta) {
+        g.rotate(theta);
+        updateTransform();
+    }
+    @Override
+    public void rotate(double theta, double x, double y) {
+        g.rotate(theta, x, y);
+        updateTransform();
+    }
+    @Override
+    public void scale(double sx, double sy) {
+        g.scale(sx, sy);
+        updateTransform();
+    }
+    @Override
+    public void shear(double shx, double shy) {
+        g.shear(shx, shy);
+        updateTransform();
+    }
+    @Override
+    public void transform(AffineTransform tx) {
+        g.transform(tx);
+        updateTransform();
+    }
+    @Override
+    public void setTransform(AffineTransform tx) {
+        g.setTransform(tx);
+        updateTransform();
+    }
+    @Override
+    public AffineTransform getTransform() {
+        return g.getTransform();
+    }
+
+    // State
+    @Override
+    public Graphics create() {
+        return new LayerGraphics(layer, (Graphics2D) g.create());
+    }
+    @Override
+    public void dispose() {
+        g.dispose();
+    }
+    @Override
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+        return g.hit(rect, s, onStroke);
+    }
+    @Override
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return g.getDeviceConfiguration();
+    }
+    @Override
+    public void setComposite(Composite comp) {
+        g.setComposite(comp);
+    }
+    @Override
+    public Composite getComposite() {
+        return g.getComposite();
+    }
+    @Override
+    public void setPaint(Paint paint) {
+        g.setPaint(paint);
+    }
+    @Override
+    public Paint getPaint() {
+        return g.getPaint();
+    }
+    @Override
+    public void setStroke(Stroke s) {
+        g.setStroke(s);
+    }
+    @Override
+    public Stroke getStroke() {
+        return g.getStroke();
+    }
+    @Override
+    public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+        g.setRenderingHint(hintKey, hintValue);
+    }
+    @Override
+    public Object getRenderingHint(RenderingHints.Key hintKey) {
+        return g.getRenderingHint(hintKey);
+    }
+    @Override
+    public void setRenderingHints(Map<?, ?> hints) {
+        g.setRenderingHints(hints);
+    }
+    @Override
+    public void addRenderingHints(Map<?, ?> hints) {
+        g.addRenderingHints(hints);
+    }
+    @Override
+    public RenderingHints getRenderingHints() {
+        return g.getRenderingHints();
+    }
+    @Override
+    public void setBackground(Color color) {
+        g.setBackground(color);
+    }
+    @Override
+    public Color getBackground() {
+        return g.getBackground();
+    }
+    @Override
+    public FontRenderContext getFontRenderContext() {
+        return g.getFontRenderContext();
+    }
+    @Override
+    public Color getColor() {
+        return g.getColor();
+    }
+    @Override
+    public void setColor(Color c) {
+        g.setColor(c);
+    }
+    @Override
+    public void setPaintMode() {
+        g.setPaintMode();
+    }
+    @Override
+    public void setXORMode(Color c1) {
+        g.setXORMode(c1);
+    }
+    @Override
+    public Font getFont() {
+        return g.getFont();
+    }
+    @Override
+    public void setFont(Font font) {
+        g.setFont(font);
+    }
+    @Override
+    public FontMetrics getFontMetrics(Font f) {
+        return g.getFontMetrics(f);
+    }
+
+    // Clip
+    @Override
+    public void clip(Shape s) {
+        g.clip(s);
+    }
+    @Override
+    public Rectangle getClipBounds() {
+        return g.getClipBounds();
+    }
+    @Override
+    public void clipRect(int x, int y, int width, int height) {
+        g.clipRect(x, y, width, height);
+    }
+    @Override
+    public void setClip(int x, int y, int width, int height) {
+        g.setClip(x, y, width, height);
+    }
+    @Override
+    public Shape getClip() {
+        return g.getClip();
+    }
+    @Override
+    public void setClip(Shape clip) {
+        g.setClip(clip);
+    }
+}
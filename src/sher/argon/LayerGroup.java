@@ -0,0 +1,58 @@
+package sher.argon;
+
+import sher.argon.core.renderer.Renderer;
+
+/**
+ * Layer group combines adjacent {@link Layer layers} that can be frozen into a single cached image.
+ * <br>
+ * A frozen group is blended once and the cached result is rendered in place of its layers, so a stack of static background layers costs as much as one layer.
+ * Writing to any of the group's layers automatically refreshes the cache, only in the regions that have changed.
+ * The layers' {@link BlendMode blend modes} and opacities apply within the group, the cache is placed over the layers below as a normal layer.
+ * @see Argon#groupLayers(Layer...)
+ */
+public class LayerGroup {
+    Renderer renderer;
+    Layer[] layers;
+    boolean frozen;
+
+    LayerGroup(Renderer renderer, Layer[] layers) {
+        this.renderer = renderer;
+        this.layers = layers;
+        frozen = false;
+    }
+
+    /**
+     * Blends the group's layers into a cached image, which is rendered instead of the layers.
+     * @throws IllegalArgumentException if the layers are not adjacent or any of them is removed or already frozen in another group
+     */
+    public void freeze() {
+        if (frozen) return;
+        renderer.freeze(layers);
+        frozen = true;
+    }
+
+    /**
+     * Drops the cached image, the layers are rendered individually again.
+     */
+    public void unfreeze() {
+        if (!frozen) return;
+        renderer.unfreeze(layers);
+        frozen = false;
+    }
+
+    /**
+     * Returns if the group is frozen.
+     * @return true if the group is rendered from the cached image
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Returns the group's layers.
+     * @return array of layers
+     */
+    public Layer[] getLayers() {
+        return layers.clone();
+    }
+}
@@ -0,0 +1,14 @@
+package sher.argon;
+
+/**
+ * Pixel storage of layers not backed by a heap raster.
+ * Coordinates are always within the layer's bounds.
+ */
+interface PixelStore {
+    int get(int x, int y);
+    void set(int x, int y, int rgb);
+    void readSpan(int x, int y, int length, int[] dst, int offset);
+    void writeSpan(int x, int y, int[] src, int offset, int length);
+    void fillSpan(int x, int y, int length, int rgb);
+    void fill(int rgb);
+}
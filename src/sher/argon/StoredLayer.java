@@ -0,0 +1,153 @@
+package sher.argon;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+
+/**
+ * Layer whose pixels are held in a {@link PixelStore} instead of a heap {@link #raster}.
+ */
+abstract class StoredLayer extends Layer {
+    final PixelStore store;
+
+    StoredLayer(int width, int height, boolean render, boolean premultiplied, PixelStore store) {
+        super(width, height, render, createImage(width, height, premultiplied, store));
+        this.store = store;
+    }
+
+    /**
+     * Creates an image over the store, used by the layer's graphics.
+     */
+    static BufferedImage createImage(int width, int height, boolean premultiplied, PixelStore store) {
+        DirectColorModel colorModel = new DirectColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                32, 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000, premultiplied, DataBuffer.TYPE_INT);
+        WritableRaster imageRaster = Raster.createWritableRaster(colorModel.createCompatibleSampleModel(width, height), new StoreBuffer(store, width, height), null);
+        return new BufferedImage(colorModel, imageRaster, premultiplied, null);
+    }
+
+    // Pixel access
+    @Override
+    public int getRGB(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return 0;
+        return fromRaster(store.get(x, y));
+    }
+    @Override
+    public int getRed(int x, int y) {
+        return (getRGB(x, y) >> 16) & 0xFF;
+    }
+    @Override
+    public int getGreen(int x, int y) {
+        return (getRGB(x, y) >> 8) & 0xFF;
+    }
+    @Override
+    public int getBlue(int x, int y) {
+        return getRGB(x, y) & 0xFF;
+    }
+    @Override
+    public int getAlpha(int x, int y) {
+        return (getRGB(x, y) >> 24) & 0xFF;
+    }
+    @Override
+    public int getValue(int x, int y) {
+        int p = getRGB(x, y);
+        int r = (p>>16)&0xFF;
+        int g = (p>>8)&0xFF;
+        int b = p&0xFF;
+        return (int) (0.299*r + 0.587*g + 0.114*b);
+    }
+    @Override
+    public Color getColor(int x, int y) {
+        return new Color(getRGB(x, y), true);
+    }
+
+    @Override
+    public void setRGB(int x, int y, int rgb) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return;
+        store.set(x, y, toRaster(rgb));
+        touch(x, y);
+    }
+    @Override
+    public void setRed(int x, int y, int r) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return;
+        setRGB(x, y, (getRGB(x, y) & ~(255 << 16)) | r << 16);
+    }
+    @Override
+    public void setGreen(int x, int y, int g) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return;
+        setRGB(x, y, (getRGB(x, y) & ~(255 << 8)) | g << 8);
+    }
+    @Override
+    public void setBlue(int x, int y, int b) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return;
+        setRGB(x, y, (getRGB(x, y) & ~255) | b);
+    }
+    @Override
+    public void setAlpha(int x, int y, int alpha) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return;
+        setRGB(x, y, (getRGB(x, y) & ~(255 << 24)) | alpha << 24);
+    }
+    @Override
+    public void setValue(int x, int y, int value, int alpha) {
+        setRGB(x, y, alpha << 24 | value << 16 | value << 8 | value);
+    }
+    @Override
+    public void setColor(int x, int y, Color color) {
+        setRGB(x, y, color.getAlpha() << 24 | color.getRed() << 16 | color.getGreen() << 8 | color.getBlue());
+    }
+
+    @Override
+    public void readSpan(int x, int y, int length, int[] dst, int offset) {
+        store.readSpan(x, y, length, dst, offset);
+    }
+
+    @Override
+    void writeSpan(int x, int y, int[] src, int offset, int length) {
+        store.writeSpan(x, y, src, offset, length);
+    }
+    @Override
+    void fillSpan(int x, int y, int length, int rgb) {
+        store.fillSpan(x, y, length, rgb);
+    }
+    @Override
+    void fillColumn(int x, int y0, int y1, int rgb) {
+        for (int y = y0; y < y1; y++)
+            store.set(x, y, rgb);
+    }
+
+    // Misc
+    @Override
+    public void fill(int rgb) {
+        store.fill(toRaster(rgb));
+        filled();
+    }
+
+    /**
+     * Data buffer view of the store.
+     */
+    static class StoreBuffer extends DataBuffer {
+        final PixelStore store;
+        final int width;
+
+        StoreBuffer(PixelStore store, int width, int height) {
+            super(TYPE_INT, width * height);
+            this.store = store;
+            this.width = width;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return store.get(i % width, i / width);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            store.set(i % width, i / width, val);
+        }
+    }
+}
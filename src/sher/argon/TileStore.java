@@ -0,0 +1,201 @@
+package sher.argon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pixel storage of a {@link TiledLayer}.
+ * Tiles are allocated on the first write, until then they hold a uniform color.
+ * Tiles over the memory budget are paged out to a memory-mapped swap file, least recently written first.
+ */
+class TileStore implements PixelStore {
+    static final int SHIFT = 8, SIZE = 1 << SHIFT, MASK = SIZE - 1;
+    static final int TILE_PIXELS = SIZE * SIZE;
+    // Tiles per mapped region of the swap file
+    static final int CHUNK_TILES = 64;
+
+    final int width, height, columns, rows;
+    final int maxResident;
+
+    // Swapped flags, uniform colors and mapped chunks are written under the lock before the tile's slot is emptied,
+    // a reader that finds the slot empty is then guaranteed to see them.
+    // Paging a tile in keeps its flag, the swap file's copy stays valid for readers that found the slot empty just before
+    final AtomicReferenceArray<int[]> tiles;
+    final int[] uniform;
+    final boolean[] swapped;
+    final long[] lastUse;
+    // Packed age and index of resident tiles, reused by every trim
+    final long[] order;
+    long epoch;
+    int resident;
+
+    FileChannel swap;
+    IntBuffer[] chunks;
+
+    TileStore(int width, int height, long memoryBytes) {
+        this.width = width;
+        this.height = height;
+        columns = (width + MASK) >> SHIFT;
+        rows = (height + MASK) >> SHIFT;
+        maxResident = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBytes / (TILE_PIXELS * 4L)));
+
+        tiles = new AtomicReferenceArray<>(columns * rows);
+        uniform = new int[columns * rows];
+        swapped = new boolean[columns * rows];
+        lastUse = new long[columns * rows];
+        order = new long[columns * rows];
+        chunks = new IntBuffer[(columns * rows + CHUNK_TILES - 1) / CHUNK_TILES];
+    }
+
+    @Override
+    public int get(int x, int y) {
+        int t = (y >> SHIFT) * columns + (x >> SHIFT);
+        int offset = ((y & MASK) << SHIFT) | (x & MASK);
+        int[] tile = tiles.get(t);
+        if (tile != null)
+            return tile[offset];
+        if (swapped[t])
+            return chunks[t / CHUNK_TILES].get((t % CHUNK_TILES) * TILE_PIXELS + offset);
+        return uniform[t];
+    }
+
+    @Override
+    public void set(int x, int y, int rgb) {
+        int t = (y >> SHIFT) * columns + (x >> SHIFT);
+        int[] tile = tiles.get(t);
+        if (tile == null)
+            tile = acquire(t);
+        tile[((y & MASK) << SHIFT) | (x & MASK)] = rgb;
+        lastUse[t] = epoch;
+    }
+
+    synchronized int[] acquire(int t) {
+        int[] tile = tiles.get(t);
+        if (tile != null)
+            return tile;
+        tile = new int[TILE_PIXELS];
+        if (swapped[t])
+            chunks[t / CHUNK_TILES].get((t % CHUNK_TILES) * TILE_PIXELS, tile, 0, TILE_PIXELS);
+        else if (uniform[t] != 0)
+            Arrays.fill(tile, uniform[t]);
+        tiles.set(t, tile);
+        resident++;
+        return tile;
+    }
+
+    @Override
+    public void readSpan(int x, int y, int length, int[] dst, int offset) {
+        int rowOffset = (y & MASK) << SHIFT;
+        int tileRow = (y >> SHIFT) * columns;
+        while (length > 0) {
+            int t = tileRow + (x >> SHIFT);
+            int n = Math.min(length, SIZE - (x & MASK));
+            int[] tile = tiles.get(t);
+            if (tile != null)
+                System.arraycopy(tile, rowOffset | (x & MASK), dst, offset, n);
+            else if (swapped[t])
+                // Cold tiles are read from the mapping without being paged in
+                chunks[t / CHUNK_TILES].get((t % CHUNK_TILES) * TILE_PIXELS + (rowOffset | (x & MASK)), dst, offset, n);
+            else
+                Arrays.fill(dst, offset, offset + n, uniform[t]);
+            x += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void writeSpan(int x, int y, int[] src, int offset, int length) {
+        int rowOffset = (y & MASK) << SHIFT;
+        int tileRow = (y >> SHIFT) * columns;
+        while (length > 0) {
+            int t = tileRow + (x >> SHIFT);
+            int n = Math.min(length, SIZE - (x & MASK));
+            int[] tile = tiles.get(t);
+            if (tile == null)
+                tile = acquire(t);
+            System.arraycopy(src, offset, tile, rowOffset | (x & MASK), n);
+            lastUse[t] = epoch;
+            x += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void fillSpan(int x, int y, int length, int rgb) {
+        int rowOffset = (y & MASK) << SHIFT;
+        int tileRow = (y >> SHIFT) * columns;
+        while (length > 0) {
+            int t = tileRow + (x >> SHIFT);
+            int n = Math.min(length, SIZE - (x & MASK));
+            int[] tile = tiles.get(t);
+            if (tile == null)
+                tile = acquire(t);
+            int i = rowOffset | (x & MASK);
+            Arrays.fill(tile, i, i + n, rgb);
+            lastUse[t] = epoch;
+            x += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public synchronized void fill(int rgb) {
+        for (int t = 0; t < uniform.length; t++) {
+            swapped[t] = false;
+            uniform[t] = rgb;
+            tiles.set(t, null);
+        }
+        resident = 0;
+    }
+
+    /**
+     * Pages out the least recently written tiles over the memory budget.
+     */
+    synchronized void trim() {
+        epoch++;
+        if (resident <= maxResident)
+            return;
+
+        // Ages in the high bits, tile indices in the low bits, the oldest tiles sort last
+        int count = 0;
+        for (int t = 0; t < uniform.length; t++) {
+            if (tiles.get(t) != null)
+                order[count++] = Math.min(epoch - lastUse[t], Integer.MAX_VALUE) << 32 | t;
+        }
+        Arrays.sort(order, 0, count);
+
+        for (int c = count - 1; c >= 0 && resident > maxResident; c--) {
+            int t = (int) order[c];
+            chunk(t).put((t % CHUNK_TILES) * TILE_PIXELS, tiles.get(t), 0, TILE_PIXELS);
+            swapped[t] = true;
+            tiles.set(t, null);
+            resident--;
+        }
+    }
+
+    IntBuffer chunk(int t) {
+        int c = t / CHUNK_TILES;
+        if (chunks[c] == null) {
+            try {
+                if (swap == null) {
+                    File file = File.createTempFile("argon", ".tiles");
+                    file.deleteOnExit();
+                    swap = new RandomAccessFile(file, "rw").getChannel();
+                }
+                long size = (long) CHUNK_TILES * TILE_PIXELS * 4;
+                chunks[c] = swap.map(FileChannel.MapMode.READ_WRITE, c * size, size).asIntBuffer();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return chunks[c];
+    }
+}
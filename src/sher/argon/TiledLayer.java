@@ -0,0 +1,43 @@
+package sher.argon;
+
+/**
+ * Layer for canvases too large to be held in memory as a single raster.
+ * The pixels are stored in tiles allocated on the first write, layer's {@link #fill(int) fills} and {@link #clear() clears} drop the tiles altogether.
+ * Tiles over the memory budget are paged out to a temporary memory-mapped file, least recently written first, and paged back in when written to.
+ * <br>
+ * The layer has no {@link #raster}, pixels are accessed through the layer's methods.
+ * Drawing with {@link #g graphics} works, but is considerably slower than on a regular layer.
+ * Tiles are paged out when the renderer collects the layer's changes, or on {@link #trim()}.
+ */
+public class TiledLayer extends StoredLayer {
+    final TileStore tiles;
+
+    TiledLayer(int width, int height, boolean render, long memoryBytes) {
+        this(width, height, render, false, memoryBytes);
+    }
+
+    TiledLayer(int width, int height, boolean render, boolean premultiplied, long memoryBytes) {
+        this(width, height, render, premultiplied, new TileStore(width, height, memoryBytes));
+    }
+
+    private TiledLayer(int width, int height, boolean render, boolean premultiplied, TileStore tiles) {
+        super(width, height, render, premultiplied, tiles);
+        this.tiles = tiles;
+    }
+
+    /**
+     * Pages out the least recently written tiles until the layer fits its memory budget.
+     * Must not be called concurrently with writes to the layer.
+     */
+    public void trim() {
+        tiles.trim();
+    }
+
+    @Override
+    public boolean collectDirtyTiles(boolean[] mask) {
+        boolean dirty = super.collectDirtyTiles(mask);
+        // The renderer collects changes between writes, which makes it a safe point to page out
+        trim();
+        return dirty;
+    }
+}
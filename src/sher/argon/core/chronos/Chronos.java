@@ -3,17 +3,69 @@ package sher.argon.core.chronos;
 import sher.argon.Clock;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Chronos {
     Thread chronosThread;
-    boolean RUNNING;
-    ArrayList<ClockStruct> clockStructs;
+    volatile boolean RUNNING;
+    // Copy-on-write arrays, clocks can be added and removed while running
+    volatile ClockStruct[] clockStructs;
+    volatile ClockGroup[] groups;
     ArrayList<ChronosListener> chronosListeners;
 
+    // Each clock or named group of clocks runs on its own thread
+    boolean multithreaded;
+    // Clocks run at fixed steps in real time instead of in proportion to the fastest clock
+    boolean fixedTimestep;
+    // Clocks step through simulated time as fast as possible, on a single thread
+    boolean offline;
+    volatile long simulatedTime;
+    // Exact simulated time, as the ticks of the clock that ticked last at its frequency
+    long simulatedTicks;
+    int simulatedFrequency;
+    // Ticks are run on the caller's thread by step()
+    volatile boolean stepping;
+    // Modes of the current run
+    boolean threaded, fixed;
+    // Common time base of the groups
+    long origin;
+    // Only with multiple groups: non-exclusive ticks take the read lock, the publisher the write lock without ever waiting for it
+    ReentrantReadWriteLock tickLock;
+    volatile boolean locking;
+    volatile Runnable publisher;
+
+    // Report arrays and scratch, reused every second
+    String[] names;
+    int[] callCounters;
+    float[] avgExecTimes;
+    ClockStats[] stats;
+    long[] histogramScratch;
+    float[] percentiles;
+
     public Chronos() {
-        clockStructs = new ArrayList<>();
+        clockStructs = new ClockStruct[0];
+        groups = new ClockGroup[0];
         chronosListeners = new ArrayList<>();
         RUNNING = false;
+        multithreaded = false;
+        fixedTimestep = false;
+        offline = false;
+        simulatedTime = 0;
+        simulatedTicks = 0;
+        simulatedFrequency = 1;
+        stepping = false;
+        tickLock = new ReentrantReadWriteLock();
+        locking = false;
+        publisher = null;
+        names = new String[0];
+        callCounters = new int[0];
+        avgExecTimes = new float[0];
+        stats = new ClockStats[0];
+        histogramScratch = new long[TimeHistogram.SIZE];
+        percentiles = new float[3];
     }
 
     public void addChronosListener(ChronosListener chronosListener) {
@@ -21,141 +73,371 @@ public class Chronos {
     }
 
     public void addClock(String name, Clock clock, int frequency) {
+        addClock(name, clock, frequency, null, false);
+    }
+    /**
+     * Adds the clock, also while running.
+     * A running group picks up the clock at its next loop pass.
+     */
+    public synchronized void addClock(String name, Clock clock, int frequency, String group, boolean exclusive) {
         if (name == null)
-            name = "Clock " + (clockStructs.size()+1);
-        clockStructs.add(new ClockStruct(name, clock, frequency));
+            name = "Clock " + (clockStructs.length+1);
+        ClockStruct clockStruct = new ClockStruct(name, clock, frequency, group, exclusive);
+        ClockStruct[] clockStructs = Arrays.copyOf(this.clockStructs, this.clockStructs.length + 1);
+        clockStructs[clockStructs.length - 1] = clockStruct;
+        this.clockStructs = clockStructs;
+        if (RUNNING)
+            attach(clockStruct);
     }
-    public void removeClock(int index) {
-        clockStructs.remove(index);
+    public synchronized void removeClock(int index) {
+        ClockStruct clockStruct = clockStructs[index];
+        ClockStruct[] clockStructs = new ClockStruct[this.clockStructs.length - 1];
+        System.arraycopy(this.clockStructs, 0, clockStructs, 0, index);
+        System.arraycopy(this.clockStructs, index + 1, clockStructs, index, clockStructs.length - index);
+        this.clockStructs = clockStructs;
+        detach(clockStruct);
+    }
+    /**
+     * Removes the clock, also while running.
+     * The clock does not start any new tick afterwards, a tick in progress completes.
+     * @return false if there is no such clock
+     */
+    public synchronized boolean removeClock(Clock clock) {
+        for (int i = 0; i < clockStructs.length; i++) {
+            if (clockStructs[i].clock == clock) {
+                removeClock(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void attach(ClockStruct clockStruct) {
+        Object key = groupKey(clockStruct);
+        for (ClockGroup group : groups) {
+            if (group.key == key || group.key.equals(key)) {
+                group.add(clockStruct);
+                return;
+            }
+        }
+
+        ClockGroup group = new ClockGroup(this, key, groupName(clockStruct));
+        group.joinedLate = true;
+        group.add(clockStruct);
+        ClockGroup[] groups = Arrays.copyOf(this.groups, this.groups.length + 1);
+        groups[groups.length - 1] = group;
+        this.groups = groups;
+        locking = true;
+        group.thread = new Thread(group::run, group.name);
+        group.thread.start();
+    }
+
+    void detach(ClockStruct clockStruct) {
+        clockStruct.removed = true;
+        for (int g = 0; g < groups.length; g++) {
+            ClockGroup group = groups[g];
+            if (!group.remove(clockStruct))
+                continue;
+            // An emptied group's loop ends, except for the single group of a sequential run, which keeps reporting
+            if (group.clockStructs.length == 0 && threaded) {
+                group.closed = true;
+                LockSupport.unpark(group.thread);
+                ClockGroup[] groups = new ClockGroup[this.groups.length - 1];
+                System.arraycopy(this.groups, 0, groups, 0, g);
+                System.arraycopy(this.groups, g + 1, groups, g, groups.length - g);
+                this.groups = groups;
+            }
+            return;
+        }
     }
 
     public int getClocksCount() {
-        return clockStructs.size();
+        return clockStructs.length;
     }
     public String[] getClockNames() {
-        String[] names = new String[clockStructs.size()];
-        int i = 0;
-        for (ClockStruct clockStruct : clockStructs)
-            names[i++] = clockStruct.name;
+        ClockStruct[] clockStructs = this.clockStructs;
+        String[] names = new String[clockStructs.length];
+        for (int i = 0; i < clockStructs.length; i++)
+            names[i] = clockStructs[i].name;
         return names;
     }
 
+    /**
+     * Sets whether each clock, or each named group of clocks, runs on its own thread.
+     * Takes effect on the next start.
+     */
+    public void setMultithreaded(boolean multithreaded) {
+        this.multithreaded = multithreaded;
+    }
+    public boolean isMultithreaded() {
+        return multithreaded;
+    }
+
+    /**
+     * Sets whether the clocks run at fixed steps in real time.
+     * Non-exclusive clocks then catch up on missed steps, exclusive ones run freely.
+     * Takes effect on the next start.
+     */
+    public void setFixedTimestep(boolean fixedTimestep) {
+        this.fixedTimestep = fixedTimestep;
+    }
+    public boolean isFixedTimestep() {
+        return fixedTimestep;
+    }
+
+    /**
+     * Returns the fraction of a step elapsed since the clock's last tick, in range [0-1].
+     * Always 1 unless running in fixed timestep mode.
+     */
+    public double getInterpolationAlpha(String name) {
+        for (ClockStruct clockStruct : clockStructs) {
+            if (clockStruct.name.equals(name))
+                return alpha(clockStruct);
+        }
+        return 1;
+    }
+    /**
+     * Returns the interpolation alpha of the fastest non-exclusive clock.
+     */
+    public double getInterpolationAlpha() {
+        ClockStruct fastest = null;
+        for (ClockStruct clockStruct : clockStructs) {
+            if (!clockStruct.exclusive && (fastest == null || clockStruct.frequency > fastest.frequency))
+                fastest = clockStruct;
+        }
+        return (fastest == null) ? 1 : alpha(fastest);
+    }
+    double alpha(ClockStruct clockStruct) {
+        if (!fixed || !RUNNING)
+            return 1;
+        long accumulated = System.nanoTime() - (origin + clockStruct.dropped + clockStruct.ticks * clockStruct.period);
+        return Math.max(0, Math.min(1, (double) accumulated / clockStruct.period));
+    }
+
+    /**
+     * Sets whether the clocks run offline.
+     * Offline, simulated time advances to the next due tick as soon as the previous one completes, so every clock ticks exactly at its frequency in simulated time, however long the ticks take.
+     * Takes effect on the next start.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Returns the simulated time of the last offline tick in nanoseconds.
+     * Simulated time continues across stops and starts until reset.
+     */
+    public long getSimulatedTime() {
+        return simulatedTime;
+    }
+    /**
+     * Resets simulated time to 0, the clocks start over from their first tick on the next start.
+     */
+    public synchronized void resetSimulatedTime() {
+        simulatedTime = 0;
+        simulatedTicks = 0;
+        simulatedFrequency = 1;
+        for (ClockStruct clockStruct : clockStructs)
+            clockStruct.simulated = false;
+    }
+
     public boolean isRunning() {
         return RUNNING;
     }
 
-    public boolean start() {
-        if (clockStructs.size() == 0) return false;
+    /**
+     * Sets the function publishing the clocks' state, e.g. taking a snapshot of the layers, for exclusive clocks to read while other clocks keep ticking.
+     * The publisher is run whenever a non-exclusive tick completes while no other non-exclusive tick is running, and on {@link #publish()}.
+     * Ticks starting meanwhile wait for it, so it must be quick.
+     */
+    public void setPublisher(Runnable publisher) {
+        this.publisher = publisher;
+    }
+    /**
+     * Returns whether clocks of different groups are ticking concurrently.
+     * Exclusive clocks must then read the published state instead of the state written by other clocks.
+     */
+    public boolean isConcurrent() {
+        return locking;
+    }
+    /**
+     * Runs the publisher unless a non-exclusive clock is ticking.
+     * Never waits for the ticks, the state published last stays in place if one is running.
+     * @return true if the publisher has run
+     */
+    public boolean publish() {
+        Runnable publisher = this.publisher;
+        if (publisher == null || !tickLock.writeLock().tryLock())
+            return false;
+        try {
+            publisher.run();
+        } finally {
+            tickLock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    public synchronized boolean start() {
+        if (clockStructs.length == 0) return false;
         if (RUNNING) return false;
+        threaded = multithreaded && !offline;
+        fixed = fixedTimestep;
+        groups = createGroups();
+        locking = groups.length > 1;
         RUNNING = true;
-        chronosThread = new Thread(this::realtime);
+        origin = System.nanoTime();
+        if (threaded) {
+            for (ClockGroup group : groups) {
+                group.thread = new Thread(group::run, group.name);
+                group.thread.start();
+            }
+        }
+        chronosThread = new Thread(this::realtime, "Chronos");
         chronosThread.start();
         return true;
     }
-    void realtime() {
-        ClockStruct baseClock = clockStructs.get(0);
+
+    ClockGroup[] createGroups() {
+        LinkedHashMap<Object, ClockGroup> groups = new LinkedHashMap<>();
         for (ClockStruct clockStruct : clockStructs) {
-            if (clockStruct.frequency > baseClock.frequency)
-                baseClock = clockStruct;
+            clockStruct.removed = false;
+            groups.computeIfAbsent(groupKey(clockStruct), key -> new ClockGroup(this, key, groupName(clockStruct))).add(clockStruct);
         }
+        return groups.values().toArray(new ClockGroup[0]);
+    }
 
-        for (ClockStruct clockStruct : clockStructs)
-            clockStruct.relativeTime = (float) baseClock.frequency / clockStruct.frequency;
+    Object groupKey(ClockStruct clockStruct) {
+        if (!threaded)
+            return this;
+        // Clocks without a group are keyed by themselves
+        return (clockStruct.group == null) ? clockStruct : clockStruct.group;
+    }
+    String groupName(ClockStruct clockStruct) {
+        if (!threaded)
+            return "Chronos";
+        return "Chronos " + ((clockStruct.group == null) ? clockStruct.name : clockStruct.group);
+    }
+
+    /**
+     * Runs the clocks offline on the calling thread until the given clock has ticked the given number of times.
+     * The other clocks tick in their frequency ratio to it, in simulated time and without any pacing, see {@link #setOffline(boolean)}.
+     * Stopping ends the run after the current tick.
+     * @return false if the clocks are running or the clock is not added
+     */
+    public boolean step(Clock clock, long ticks) {
+        ClockGroup group;
+        ClockStruct target = null;
+        synchronized (this) {
+            if (RUNNING) return false;
+            for (ClockStruct clockStruct : clockStructs) {
+                if (clockStruct.clock == clock)
+                    target = clockStruct;
+            }
+            if (target == null) return false;
+
+            threaded = false;
+            fixed = false;
+            groups = createGroups();
+            locking = false;
+            group = groups[0];
+            group.reporting = true;
+            stepping = true;
+            chronosThread = Thread.currentThread();
+            RUNNING = true;
+        }
+        try {
+            group.thread = Thread.currentThread();
+            group.runOffline(target, ticks);
+        } finally {
+            RUNNING = false;
+            stepping = false;
+        }
+        return true;
+    }
 
-        long baseFreqTime = 1000000000 / baseClock.frequency;
+    void realtime() {
+        if (!threaded) {
+            groups[0].reporting = true;
+            groups[0].run();
+            return;
+        }
 
-        long sleepOffset = 0;
-        long secondsTimer = System.nanoTime();
-        long baseTimer = System.nanoTime();
+        Pacer pacer = new Pacer(this);
+        long secondsTimer = origin;
         while (RUNNING) {
-            if (System.nanoTime() - baseTimer >= baseFreqTime) {
-                baseTimer = System.nanoTime();
-
-                for (ClockStruct clockStruct : clockStructs) {
-                    if (baseClock.callCounter - (int) (clockStruct.relativeTime * clockStruct.callCounter) >= 0) {
-                        clockStruct.callCounter++;
-                        long execStartTime = System.nanoTime();
-                        clockStruct.clock.tick();
-                        clockStruct.execTimeAccumulator += System.nanoTime() - execStartTime;
-                    }
-                }
-            }
+            secondsTimer += 1000000000;
+            pacer.waitUntil(secondsTimer);
+            if (RUNNING)
+                report();
+        }
 
-            if (System.nanoTime() - secondsTimer >= 1000000000) {
-                secondsTimer = System.nanoTime();
-
-                String[] names = new String[clockStructs.size()];
-                int[] callCounters = new int[clockStructs.size()];
-                float[] avgExecTimes = new float[clockStructs.size()];
-                int i = 0;
-                for (ClockStruct clockStruct : clockStructs) {
-                    names[i] = clockStruct.name;
-                    callCounters[i] = clockStruct.callCounter;
-                    avgExecTimes[i] = clockStruct.execTimeAccumulator / (clockStruct.callCounter * 1000000f);
-                    i++;
-                    clockStruct.reset();
-                }
-
-                for (ChronosListener listener : chronosListeners)
-                    listener.secondsTimer(names, callCounters, avgExecTimes);
+        for (ClockGroup group : groups) {
+            try {
+                group.thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
+        }
+    }
 
-            /* Low idle usage, but useless for non-realtime application */
-//            long execTime = System.nanoTime() - baseTimer;
-//            if (execTime < baseFreqTime) {
-//                long sleepTime = System.nanoTime();
-//                try {
-////                    TimeUnit.NANOSECONDS.sleep(relTargetTimes[baseFreqIndex] - execTime - sleepOffset);
-//                    Thread.sleep((baseFreqTime - execTime - sleepOffset) / 1000000);
-//                } catch (Exception ignore) {}
-//                sleepTime = System.nanoTime() - sleepTime;
-//                sleepOffset = sleepTime - (baseFreqTime - execTime - sleepOffset);
-//            }
-        }
-    }
-//    void fastLoop() {
-//        ClockStruct baseClock = clockStructs.get(0);
-//        for (ClockStruct clockStruct : clockStructs) {
-//            if (clockStruct.frequency > baseClock.frequency)
-//                baseClock = clockStruct;
-//        }
-//
-//        for (ClockStruct clockStruct : clockStructs)
-//            clockStruct.relativeTime = (float) baseClock.frequency / clockStruct.frequency;
-//
-//        long secondsTimer = System.nanoTime();
-//        while (LOOP) {
-//            for (ClockStruct clockStruct : clockStructs) {
-//                if (baseClock.callCounter - (int) (clockStruct.relativeTime * clockStruct.callCounter) >= 0) {
-//                    clockStruct.callCounter++;
-//                    long execStartTime = System.nanoTime();
-//                    clockStruct.clock.tick();
-//                    clockStruct.execTimeAccumulator += System.nanoTime() - execStartTime;
-//                }
-//            }
-//
-//            if (System.nanoTime() - secondsTimer >= 1000000000) {
-//                secondsTimer = System.nanoTime();
-//
-//                int[] callCounters = new int[clockStructs.size()];
-//                float[] avgExecTimes = new float[clockStructs.size()];
-//                int i = 0;
-//                for (ClockStruct clockStruct : clockStructs) {
-//                    callCounters[i] = clockStruct.callCounter;
-//                    avgExecTimes[i] = clockStruct.execTimeAccumulator / (clockStruct.callCounter * 1000000f);
-//                    i++;
-//                    clockStruct.reset();
-//                }
-//
-//                for (ChronosListener listener : chronosListeners)
-//                    listener.secondsTimer(callCounters, avgExecTimes);
-//            }
-//        }
-//    }
+    void report() {
+        ClockStruct[] clockStructs = this.clockStructs;
+        // Arrays are reused until the clocks change
+        if (names.length != clockStructs.length) {
+            names = new String[clockStructs.length];
+            callCounters = new int[clockStructs.length];
+            avgExecTimes = new float[clockStructs.length];
+            stats = new ClockStats[clockStructs.length];
+        }
+        for (int i = 0; i < clockStructs.length; i++) {
+            ClockStruct clockStruct = clockStructs[i];
+            long calls = clockStruct.calls;
+            long execTime = clockStruct.execTime;
+            names[i] = clockStruct.name;
+            callCounters[i] = (int) (calls - clockStruct.reportedCalls);
+            avgExecTimes[i] = (execTime - clockStruct.reportedExecTime) / (callCounters[i] * 1000000f);
+            clockStruct.reportedCalls = calls;
+            clockStruct.reportedExecTime = execTime;
+
+            ClockStats clockStats = clockStruct.stats;
+            clockStruct.execTimes.drain(histogramScratch, percentiles);
+            clockStats.execP50 = percentiles[0];
+            clockStats.execP99 = percentiles[1];
+            clockStats.execMax = percentiles[2];
+            clockStruct.lateness.drain(histogramScratch, percentiles);
+            clockStats.latenessP50 = percentiles[0];
+            clockStats.latenessP99 = percentiles[1];
+            clockStats.latenessMax = percentiles[2];
+            clockStruct.jitter.drain(histogramScratch, percentiles);
+            clockStats.jitterP50 = percentiles[0];
+            clockStats.jitterP99 = percentiles[1];
+            clockStats.jitterMax = percentiles[2];
+            stats[i] = clockStats;
+        }
+
+        for (ChronosListener listener : chronosListeners) {
+            listener.secondsTimer(names, callCounters, avgExecTimes);
+            listener.clockStats(names, stats);
+        }
+    }
 
     public void stop() {
         if (!RUNNING) return;
         RUNNING = false;
+        // Parked loops wake up at once instead of at their next deadline
+        LockSupport.unpark(chronosThread);
+        for (ClockGroup group : groups)
+            LockSupport.unpark(group.thread);
+        // Stopped from a tick or while stepping, the loops end once the current tick returns
+        if (stepping || Thread.currentThread() == chronosThread)
+            return;
+        for (ClockGroup group : groups) {
+            if (Thread.currentThread() == group.thread)
+                return;
+        }
         try {
             chronosThread.join();
         } catch (InterruptedException e) {
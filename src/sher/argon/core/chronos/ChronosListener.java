@@ -2,4 +2,10 @@ package sher.argon.core.chronos;
 
 public interface ChronosListener {
     void secondsTimer(String[] clockNames, int[] callCounters, float[] avgExecTimes);
+
+    /**
+     * Is called every second after {@link #secondsTimer(String[], int[], float[])} with the clocks' timing statistics over that second.
+     * The arrays and stats are reused by the next call.
+     */
+    default void clockStats(String[] clockNames, ClockStats[] stats) {}
 }
@@ -0,0 +1,324 @@
+package sher.argon.core.chronos;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Clocks run sequentially on one thread.
+ * By default, the fastest clock sets the loop's rate, the others tick in proportion to it.
+ * In fixed timestep mode, every clock keeps to its own schedule in real time.
+ * Offline, the clocks follow simulated time without any pacing.
+ * <br>
+ * Clocks added or removed while running are picked up at the start of the next loop pass.
+ */
+class ClockGroup {
+    // Lag after which a fixed step clock stops catching up and drops the excess time
+    static final long MAX_LAG = 250000000;
+    // Loop period while the group has no clocks
+    static final long IDLE_PERIOD = 100000000;
+
+    final Chronos chronos;
+    final Object key;
+    final String name;
+    // Copy-on-write, replaced by Chronos under its lock
+    volatile ClockStruct[] clockStructs;
+    // The group also sends the seconds reports
+    boolean reporting;
+    volatile boolean closed;
+    // Created while running, the clocks do not start from the origin
+    boolean joinedLate;
+    Thread thread;
+    Pacer pacer;
+    // Relative mode: rate of the fastest clock and passes at that rate
+    int baseFrequency;
+    double baseTicks;
+
+    ClockGroup(Chronos chronos, Object key, String name) {
+        this.chronos = chronos;
+        this.key = key;
+        this.name = name;
+        clockStructs = new ClockStruct[0];
+        reporting = false;
+        closed = false;
+        joinedLate = false;
+        pacer = new Pacer(chronos);
+    }
+
+    void add(ClockStruct clockStruct) {
+        ClockStruct[] clockStructs = Arrays.copyOf(this.clockStructs, this.clockStructs.length + 1);
+        clockStructs[clockStructs.length - 1] = clockStruct;
+        this.clockStructs = clockStructs;
+    }
+
+    boolean remove(ClockStruct clockStruct) {
+        for (int i = 0; i < clockStructs.length; i++) {
+            if (clockStructs[i] == clockStruct) {
+                ClockStruct[] clockStructs = new ClockStruct[this.clockStructs.length - 1];
+                System.arraycopy(this.clockStructs, 0, clockStructs, 0, i);
+                System.arraycopy(this.clockStructs, i + 1, clockStructs, i, clockStructs.length - i);
+                this.clockStructs = clockStructs;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean running() {
+        return chronos.RUNNING && !closed;
+    }
+
+    void run() {
+        thread = Thread.currentThread();
+        if (chronos.offline)
+            runOffline(null, 0);
+        else if (chronos.fixed)
+            runFixed();
+        else
+            runRelative();
+    }
+
+    void runRelative() {
+        ClockStruct[] clockStructs = new ClockStruct[0];
+        baseFrequency = 0;
+        baseTicks = 0;
+        long baseFreqTime = IDLE_PERIOD;
+
+        // Every group counts from the common origin
+        long secondsTimer = chronos.origin;
+        long baseTimer = chronos.origin;
+        while (running()) {
+            if (clockStructs != this.clockStructs) {
+                ClockStruct[] previous = clockStructs;
+                clockStructs = this.clockStructs;
+                plan(previous, clockStructs);
+                baseFreqTime = (baseFrequency == 0) ? IDLE_PERIOD : 1000000000 / baseFrequency;
+            }
+
+            long deadline = baseTimer + baseFreqTime;
+            if (reporting && secondsTimer + 1000000000 - deadline < 0)
+                deadline = secondsTimer + 1000000000;
+            pacer.waitUntil(deadline);
+
+            long now = System.nanoTime();
+            if (now - baseTimer >= baseFreqTime) {
+                long due = baseTimer + baseFreqTime;
+                // Deadlines advance by the period so the rate does not drift, a loop behind by a whole period does not catch up
+                baseTimer = (now - baseTimer >= 2 * baseFreqTime) ? now : baseTimer + baseFreqTime;
+
+                for (ClockStruct clockStruct : clockStructs) {
+                    if (clockStruct.next <= baseTicks) {
+                        clockStruct.next += clockStruct.relativeTime;
+                        clockStruct.ticks++;
+                        tick(clockStruct, due, (long) (clockStruct.relativeTime * baseFreqTime));
+                    }
+                }
+                baseTicks++;
+            }
+
+            if (reporting && now - secondsTimer >= 1000000000) {
+                secondsTimer = now;
+                chronos.report();
+            }
+        }
+    }
+
+    /**
+     * Sets the clocks' rates relative to the fastest one.
+     * When the fastest rate changes, the positions are rescaled so every clock keeps its phase, joining clocks tick on the next pass.
+     */
+    void plan(ClockStruct[] previous, ClockStruct[] clockStructs) {
+        int frequency = 0;
+        for (ClockStruct clockStruct : clockStructs)
+            frequency = Math.max(frequency, clockStruct.frequency);
+        if (frequency == 0) {
+            baseFrequency = 0;
+            return;
+        }
+
+        double scale = (baseFrequency == 0) ? 1 : (double) frequency / baseFrequency;
+        baseTicks *= scale;
+        for (ClockStruct clockStruct : clockStructs) {
+            clockStruct.relativeTime = (double) frequency / clockStruct.frequency;
+            if (contains(previous, clockStruct)) {
+                clockStruct.next *= scale;
+            } else {
+                clockStruct.next = baseTicks;
+                clockStruct.lastStart = 0;
+            }
+        }
+        baseFrequency = frequency;
+    }
+
+    void runFixed() {
+        ClockStruct[] clockStructs = null;
+
+        long secondsTimer = chronos.origin;
+        while (running()) {
+            if (clockStructs != this.clockStructs) {
+                // Joining clocks are due one period from now, or from the origin on start
+                long joinTime = (clockStructs == null && !joinedLate) ? chronos.origin : System.nanoTime();
+                ClockStruct[] previous = (clockStructs == null) ? new ClockStruct[0] : clockStructs;
+                clockStructs = this.clockStructs;
+                for (ClockStruct clockStruct : clockStructs) {
+                    if (!contains(previous, clockStruct)) {
+                        clockStruct.ticks = 0;
+                        clockStruct.dropped = joinTime - chronos.origin;
+                        clockStruct.lastStart = 0;
+                    }
+                }
+            }
+
+            long deadline = System.nanoTime() + IDLE_PERIOD;
+            for (ClockStruct clockStruct : clockStructs) {
+                if (due(clockStruct) - deadline < 0)
+                    deadline = due(clockStruct);
+            }
+            if (reporting && secondsTimer + 1000000000 - deadline < 0)
+                deadline = secondsTimer + 1000000000;
+            pacer.waitUntil(deadline);
+
+            long now = System.nanoTime();
+            for (ClockStruct clockStruct : clockStructs) {
+                long lag = now - due(clockStruct);
+                if (lag < 0)
+                    continue;
+
+                if (clockStruct.exclusive) {
+                    // Free clocks tick once and skip the missed ticks
+                    long due = now - lag % clockStruct.period;
+                    clockStruct.dropped += lag - lag % clockStruct.period;
+                    clockStruct.ticks++;
+                    tick(clockStruct, due, clockStruct.period);
+                    continue;
+                }
+
+                // Fixed step clocks catch up on the missed steps, up to the maximum lag
+                long maxLag = Math.max(MAX_LAG, clockStruct.period);
+                if (lag > maxLag) {
+                    clockStruct.dropped += lag - maxLag;
+                    lag = maxLag;
+                }
+                for (long steps = lag / clockStruct.period + 1; steps > 0 && running(); steps--) {
+                    long due = due(clockStruct);
+                    clockStruct.ticks++;
+                    tick(clockStruct, due, clockStruct.period);
+                }
+            }
+
+            if (reporting && now - secondsTimer >= 1000000000) {
+                secondsTimer = now;
+                chronos.report();
+            }
+        }
+    }
+
+    /**
+     * Steps simulated time as fast as possible, ticking the clock due next in simulated time.
+     * Clocks of equal due time tick in the order they were added.
+     * @param target clock to count the ticks of, null to run until stopped
+     * @param count number of the target's ticks to run
+     */
+    void runOffline(ClockStruct target, long count) {
+        ClockStruct[] clockStructs = null;
+        long end = 0;
+
+        long secondsTimer = System.nanoTime();
+        while (running()) {
+            if (clockStructs != this.clockStructs) {
+                ClockStruct[] previous = (clockStructs == null) ? new ClockStruct[0] : clockStructs;
+                clockStructs = this.clockStructs;
+                // Clocks resume from their own ticks, new clocks are next due after the current simulated time
+                for (ClockStruct clockStruct : clockStructs) {
+                    if (!contains(previous, clockStruct)) {
+                        if (!clockStruct.simulated) {
+                            clockStruct.simulatedTicks = chronos.simulatedTicks * clockStruct.frequency / chronos.simulatedFrequency;
+                            clockStruct.simulated = true;
+                        }
+                        clockStruct.lastStart = 0;
+                    }
+                }
+                if (previous.length == 0 && target != null)
+                    end = target.simulatedTicks + count;
+            }
+            if (target != null && target.removed)
+                return;
+
+            ClockStruct next = null;
+            for (ClockStruct clockStruct : clockStructs) {
+                // Due times compared exactly as (ticks + 1) / frequency
+                if (next == null || (clockStruct.simulatedTicks + 1) * next.frequency < (next.simulatedTicks + 1) * clockStruct.frequency)
+                    next = clockStruct;
+            }
+            // The run ends once the clocks due together with the target's last tick, added after it, have ticked too
+            if (target != null && target.simulatedTicks >= end
+                    && (next == null || (next.simulatedTicks + 1) * target.frequency > target.simulatedTicks * next.frequency))
+                return;
+            if (next == null) {
+                pacer.waitUntil(System.nanoTime() + IDLE_PERIOD);
+                continue;
+            }
+            next.simulatedTicks++;
+            chronos.simulatedTicks = next.simulatedTicks;
+            chronos.simulatedFrequency = next.frequency;
+            chronos.simulatedTime = next.simulatedTicks * 1000000000 / next.frequency;
+            tick(next);
+
+            if (reporting && System.nanoTime() - secondsTimer >= 1000000000) {
+                secondsTimer = System.nanoTime();
+                chronos.report();
+            }
+        }
+    }
+
+    long due(ClockStruct clockStruct) {
+        return chronos.origin + clockStruct.dropped + (clockStruct.ticks + 1) * clockStruct.period;
+    }
+
+    static boolean contains(ClockStruct[] clockStructs, ClockStruct clockStruct) {
+        for (ClockStruct c : clockStructs) {
+            if (c == clockStruct)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Runs the clock's tick, recording its execution time, lateness and jitter.
+     * @param due scheduled start of the tick
+     * @param period expected time since the previous tick
+     */
+    void tick(ClockStruct clockStruct, long due, long period) {
+        if (clockStruct.removed)
+            return;
+        long start = System.nanoTime();
+        clockStruct.lateness.record(start - due);
+        if (clockStruct.lastStart != 0)
+            clockStruct.jitter.record(Math.abs(start - clockStruct.lastStart - period));
+        clockStruct.lastStart = start;
+        tick(clockStruct);
+    }
+
+    void tick(ClockStruct clockStruct) {
+        if (clockStruct.removed)
+            return;
+        // Exclusive clocks never wait for the others, they read the published state instead
+        Lock lock = null;
+        if (chronos.locking && !clockStruct.exclusive) {
+            lock = chronos.tickLock.readLock();
+            lock.lock();
+        }
+        try {
+            long execStartTime = System.nanoTime();
+            clockStruct.clock.tick();
+            long execTime = System.nanoTime() - execStartTime;
+            clockStruct.execTime += execTime;
+            clockStruct.calls++;
+            clockStruct.execTimes.record(execTime);
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+                chronos.publish();
+            }
+        }
+    }
+}
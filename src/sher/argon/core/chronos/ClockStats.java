@@ -0,0 +1,17 @@
+package sher.argon.core.chronos;
+
+/**
+ * Timing statistics of a clock over the last second, in milliseconds.
+ * <br>
+ * Execution time is the duration of the tick function.
+ * Lateness is how long after its scheduled time a tick started.
+ * Jitter is how far the time between two consecutive ticks was from the clock's period.
+ * <br>
+ * Percentiles come from a histogram with about 3% precision, maximums are exact.
+ * Instances are reused between reports.
+ */
+public class ClockStats {
+    public float execP50, execP99, execMax;
+    public float latenessP50, latenessP99, latenessMax;
+    public float jitterP50, jitterP99, jitterMax;
+}
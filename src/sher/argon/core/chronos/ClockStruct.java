@@ -6,21 +6,52 @@ class ClockStruct {
     String name;
     Clock clock;
     int frequency;
-    float relativeTime;
-    int callCounter;
-    long execTimeAccumulator;
+    // Clocks of the same group share a thread in multithreaded mode, null for a thread of its own
+    String group;
+    // With multiple groups, an exclusive clock reads the published state instead of waiting for the other clocks, and in fixed timestep mode the clock runs freely instead of at a fixed step
+    boolean exclusive;
+    // Relative mode: base passes per tick and the base pass of the next tick
+    double relativeTime, next;
+    // Scheduling counter, reset on start
+    long ticks;
+    // Offline: ticks in simulated time, kept across runs until simulated time is reset, once the clock has joined
+    long simulatedTicks;
+    boolean simulated;
+    // Fixed timestep: the clock's tick i is due at origin + dropped + i * period
+    long period, dropped;
+    // Running totals written by the clock's thread, the reports take differences
+    long calls, execTime;
+    long reportedCalls, reportedExecTime;
+    // Telemetry: histograms written by the clock's thread and drained by the reports
+    TimeHistogram execTimes, lateness, jitter;
+    ClockStats stats;
+    // Start of the last tick, 0 if none since the clock (re)joined
+    long lastStart;
+    // Set on removal, the clock's group skips it until its next loop pass drops it
+    volatile boolean removed;
 
-    ClockStruct(String name, Clock clock, int frequency) {
+    ClockStruct(String name, Clock clock, int frequency, String group, boolean exclusive) {
         this.name = name;
         this.clock = clock;
         this.frequency = frequency;
+        this.group = group;
+        this.exclusive = exclusive;
         relativeTime = 1;
-        callCounter = 0;
-        execTimeAccumulator = 0;
-    }
-
-    void reset() {
-        callCounter = 0;
-        execTimeAccumulator = 0;
+        next = 0;
+        ticks = 0;
+        simulatedTicks = 0;
+        simulated = false;
+        period = 1000000000L / frequency;
+        dropped = 0;
+        calls = 0;
+        execTime = 0;
+        reportedCalls = 0;
+        reportedExecTime = 0;
+        removed = false;
+        execTimes = new TimeHistogram();
+        lateness = new TimeHistogram();
+        jitter = new TimeHistogram();
+        stats = new ClockStats();
+        lastStart = 0;
     }
 }
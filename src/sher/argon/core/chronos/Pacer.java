@@ -0,0 +1,47 @@
+package sher.argon.core.chronos;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for deadlines with low idle usage.
+ * The thread is parked until shortly before the deadline and spins for the last stretch.
+ * The park's measured overshoot is subtracted from the following parks, so late wake-ups are compensated.
+ */
+class Pacer {
+    // Last stretch before the deadline spent spinning
+    static final long SPIN_TIME = 100000;
+    static final long MAX_OVERSHOOT = 2000000;
+
+    final Chronos chronos;
+    // Moving average of how late parks wake up
+    long overshoot;
+
+    Pacer(Chronos chronos) {
+        this.chronos = chronos;
+        overshoot = 0;
+    }
+
+    /**
+     * Returns once the deadline passes or Chronos stops.
+     */
+    void waitUntil(long deadline) {
+        while (chronos.RUNNING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return;
+
+            long parkTime = remaining - SPIN_TIME - overshoot;
+            if (parkTime <= 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            long parkStart = System.nanoTime();
+            LockSupport.parkNanos(parkTime);
+            long late = System.nanoTime() - parkStart - parkTime;
+            // Early wake-ups (unpark, spurious) say nothing about the overshoot
+            if (late >= 0)
+                overshoot = Math.min(MAX_OVERSHOOT, overshoot + (late - overshoot) / 8);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package sher.argon.core.chronos;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated log-linear histogram of durations in microseconds.
+ * Values below 64µs are counted exactly, larger ones in 32 buckets per power of two.
+ * Recording and draining are allocation-free and may run on different threads.
+ */
+class TimeHistogram {
+    static final int SUB_BITS = 6, HALF = 1 << (SUB_BITS - 1);
+    // About 19 hours, longer values are counted in the last bucket
+    static final long MAX_VALUE = (1L << 36) - 1;
+    static final int SIZE = index(MAX_VALUE) + 1;
+
+    final AtomicLongArray counts;
+    final AtomicLong max;
+
+    TimeHistogram() {
+        counts = new AtomicLongArray(SIZE);
+        max = new AtomicLong();
+    }
+
+    static int index(long value) {
+        if (value < 1 << SUB_BITS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return (shift << (SUB_BITS - 1)) + (int) (value >> shift);
+    }
+
+    // Largest value counted in the bucket
+    static long highest(int index) {
+        if (index < 1 << SUB_BITS)
+            return index;
+        int shift = index / HALF - 1;
+        return ((long) (HALF + index - (shift + 1) * HALF) << shift) + (1L << shift) - 1;
+    }
+
+    void record(long nanos) {
+        long value = Math.min(MAX_VALUE, Math.max(0, nanos / 1000));
+        counts.incrementAndGet(index(value));
+        if (nanos > max.get())
+            max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Moves the counts into the scratch array and resets the histogram, p50, p99 and max are written into out[0-2] in milliseconds.
+     */
+    void drain(long[] scratch, float[] out) {
+        long total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            scratch[i] = counts.getAndSet(i, 0);
+            total += scratch[i];
+        }
+        // Bucket bounds can exceed the exact maximum
+        out[2] = max.getAndSet(0) / 1000000f;
+        out[0] = Math.min(out[2], percentile(scratch, total, 0.5));
+        out[1] = Math.min(out[2], percentile(scratch, total, 0.99));
+    }
+
+    static float percentile(long[] counts, long total, double percentile) {
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < SIZE; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return highest(i) / 1000f;
+        }
+        return highest(SIZE - 1) / 1000f;
+    }
+}
@@ -5,9 +5,12 @@ import java.awt.image.BufferedImage;
 class IndexedImage {
     BufferedImage image;
     int index;
+    // Whether the image is returned to the recorder's pool once written
+    boolean recycle;
 
-    IndexedImage(BufferedImage image, int index) {
+    IndexedImage(BufferedImage image, int index, boolean recycle) {
         this.image = image;
         this.index = index;
+        this.recycle = recycle;
     }
 }
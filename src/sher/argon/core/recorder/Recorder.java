@@ -1,45 +1,76 @@
 package sher.argon.core.recorder;
 
+import sher.argon.parallel.VirtualThreads;
+
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 public class Recorder {
+    // Writers re-check the interrupt flag at least this often, in milliseconds
+    static final int POLL_TIMEOUT = 10;
+
     int bufferSize;
     String outFolder;
     BlockingQueue<IndexedImage> imageQueue;
+    // Written frames are reused for the next queued ones
+    ConcurrentLinkedQueue<BufferedImage> imagePool;
     Thread[] bufferingThreads;
     int clearingThreads;
     Runnable bufferRunnable;
 
     boolean INTERRUPT = true;
+    // Writers run on virtual threads
+    boolean virtual;
 
     public Recorder(int bufferSize, int writingThreads, int clearingThreads, String outFolder) {
+        this(bufferSize, writingThreads, clearingThreads, outFolder, VirtualThreads.isRequested());
+    }
+
+    /**
+     * Creates the recorder with the writers running on virtual threads if the flag is set.
+     * Writers block on file writes, so with virtual threads a large number of them is cheap.
+     */
+    public Recorder(int bufferSize, int writingThreads, int clearingThreads, String outFolder, boolean virtualThreads) {
         this.bufferSize = bufferSize;
         this.outFolder = outFolder;
         imageQueue = new ArrayBlockingQueue<>(bufferSize);
+        imagePool = new ConcurrentLinkedQueue<>();
         bufferingThreads = new Thread[writingThreads];
         this.clearingThreads = clearingThreads;
+        virtual = virtualThreads;
 
         bufferRunnable = () -> {
             IndexedImage indexedImage;
             try {
                 while (!INTERRUPT) {
-                    if ((indexedImage = imageQueue.poll()) != null)
+                    // Waiting instead of spinning, which would also pin virtual threads' carriers
+                    if ((indexedImage = imageQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS)) != null) {
                         ImageIO.write(indexedImage.image, "png", new File(outFolder + File.separator + indexedImage.index + ".png"));
+                        if (indexedImage.recycle)
+                            imagePool.offer(indexedImage.image);
+                    }
                 }
             } catch(IOException e) {
                 System.err.println("Writing error");
                 System.exit(1);
+            } catch (InterruptedException e) {
+                return;
             }
             Thread.currentThread().interrupt();
         };
 
         for (int t = 0; t < bufferingThreads.length; t++)
-            bufferingThreads[t] = new Thread(bufferRunnable);
+            bufferingThreads[t] = newThread();
+    }
+
+    Thread newThread() {
+        return virtual ? VirtualThreads.newThread(bufferRunnable) : new Thread(bufferRunnable);
     }
 
     public void start() {
@@ -68,7 +99,7 @@ public class Recorder {
     public void reset() {
         INTERRUPT = true;
         for (int t = 0; t < bufferingThreads.length; t++)
-            bufferingThreads[t] = new Thread(bufferRunnable);
+            bufferingThreads[t] = newThread();
     }
 
     public void waitForBuffer(boolean log) {
@@ -78,7 +109,7 @@ public class Recorder {
         // Expand writing threads
         bufferingThreads = new Thread[clearingThreads];
         for (int t = 0; t < bufferingThreads.length; t++)
-            bufferingThreads[t] = new Thread(bufferRunnable);
+            bufferingThreads[t] = newThread();
 
         // Start new threads
         start();
@@ -102,8 +133,23 @@ public class Recorder {
     }
 
     // Frame buffer
+    public BufferedImage obtainImage(int width, int height, int imageType) {
+        BufferedImage image = imagePool.poll();
+        if (image == null || image.getWidth() != width || image.getHeight() != height || image.getType() != imageType)
+            image = new BufferedImage(width, height, imageType);
+        return image;
+    }
+
     public void queue(BufferedImage image, int index) throws InterruptedException {
-        imageQueue.put(new IndexedImage(image, index));
+        queue(image, index, true);
+    }
+
+    /**
+     * Queues the image for writing.
+     * Images not obtained from the recorder, such as the image of a direct layer, are written as they are without being recycled, so they must not change until written.
+     */
+    public void queue(BufferedImage image, int index, boolean recycle) throws InterruptedException {
+        imageQueue.put(new IndexedImage(image, index, recycle));
     }
 
     public int getBufferSize() {
@@ -119,6 +165,10 @@ public class Recorder {
         return clearingThreads;
     }
 
+    public boolean isVirtual() {
+        return virtual;
+    }
+
     public String getOutFolder() {
         return outFolder;
     }
@@ -0,0 +1,366 @@
+package sher.argon.core.renderer;
+
+import sher.argon.BlendMode;
+import sher.argon.Layer;
+import sher.argon.util.Gradient;
+import sher.argon.parallel.WorkerPool;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+class Compositor {
+    // Canvases smaller than this are blended on the calling thread
+    static final int MIN_PARALLEL_PIXELS = 1 << 16;
+
+    final int width, height, tileColumns;
+    // Sources are sampled every step pixels, 1 for canvas-sized targets
+    final int step, sourceWidth;
+    // Sources and target hold colors premultiplied by alpha
+    boolean premultiplied;
+    final ForkJoinPool pool;
+    final Band[] bands;
+    final RecursiveAction root;
+
+    SourceList sources;
+    int[] target;
+    boolean[] mask;
+    // Row buffer for sources read span by span, used on the calling thread
+    int[] scratch;
+
+    Compositor(int width, int height) {
+        this(width, height, 1, width);
+    }
+    /**
+     * Creates compositor for a down-sampled target, the sources are sampled with the nearest-neighbour filter.
+     */
+    Compositor(int width, int height, int step, int sourceWidth) {
+        this.width = width;
+        this.height = height;
+        this.step = step;
+        this.sourceWidth = sourceWidth;
+        tileColumns = (width + Layer.TILE_SIZE - 1) >> Layer.TILE_SHIFT;
+
+        pool = WorkerPool.get();
+        int bandsCount = (width * height < MIN_PARALLEL_PIXELS) ? 1 : Math.min(height, pool.getParallelism() * 4);
+        bands = new Band[bandsCount];
+        for (int b = 0; b < bandsCount; b++)
+            bands[b] = new Band(height * b / bandsCount, height * (b+1) / bandsCount);
+
+        // Tasks are allocated once and re-initialized every frame
+        root = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(bands);
+            }
+        };
+    }
+
+    /**
+     * Blends the sources bottom to top onto the target raster, each with its blend mode and opacity.
+     * An opaque normal first source is copied instead of blended.
+     * If the tile mask is not null, only the marked tiles are blended.
+     * Masks are not supported by down-sampling compositors.
+     */
+    void composite(SourceList sources, int[] target, boolean[] mask, int maskedTiles) {
+        this.sources = sources;
+        this.target = target;
+        this.mask = mask;
+
+        boolean small = (mask != null) && (maskedTiles << (2 * Layer.TILE_SHIFT)) < MIN_PARALLEL_PIXELS;
+        if (bands.length == 1 || small) {
+            if (scratch == null)
+                scratch = new int[sourceWidth];
+            compositeRows(0, height, scratch);
+        } else {
+            for (Band band : bands)
+                band.reinitialize();
+            root.reinitialize();
+            pool.invoke(root);
+        }
+
+        this.sources = null;
+        this.target = null;
+        this.mask = null;
+    }
+
+    void compositeRows(int y0, int y1, int[] scratch) {
+        boolean[] mask = this.mask;
+        for (int y = y0; y < y1; y++) {
+            if (step != 1) {
+                compositeSampledRow(y, scratch);
+                continue;
+            }
+            if (mask == null) {
+                compositeSpan(y, 0, width, scratch);
+                continue;
+            }
+
+            // Merge neighbouring dirty tiles into a single span
+            int maskRow = (y >> Layer.TILE_SHIFT) * tileColumns;
+            int tx = 0;
+            while (tx < tileColumns) {
+                if (!mask[maskRow + tx]) {
+                    tx++;
+                    continue;
+                }
+                int start = tx;
+                while (tx < tileColumns && mask[maskRow + tx])
+                    tx++;
+                compositeSpan(y, start << Layer.TILE_SHIFT, Math.min(tx << Layer.TILE_SHIFT, width), scratch);
+            }
+        }
+    }
+
+    void compositeSpan(int y, int x0, int x1, int[] scratch) {
+        SourceList sources = this.sources;
+        int[] target = this.target;
+        int from = y * width + x0;
+        int length = x1 - x0;
+
+        // Source-over onto a cleared canvas yields the source itself, so an opaque normal bottom layer replaces the clear
+        int s = 0;
+        if (sources.count > 0 && sources.copies(0)) {
+            int[] first = sources.rasters[0];
+            if (first != null)
+                System.arraycopy(first, from, target, from, length);
+            else
+                sources.layers[0].readSpan(x0, y, length, target, from);
+            s = 1;
+        } else {
+            Arrays.fill(target, from, from + length, 0);
+        }
+        for (; s < sources.count; s++) {
+            int[] source = sources.rasters[s];
+            int offset = from;
+            if (source == null) {
+                sources.layers[s].readSpan(x0, y, length, scratch, 0);
+                source = scratch;
+                offset = 0;
+            }
+            blendSpan(s, source, offset, from, length);
+        }
+    }
+
+    void compositeSampledRow(int y, int[] scratch) {
+        SourceList sources = this.sources;
+        int[] target = this.target;
+        int step = this.step;
+        int row = y * width;
+
+        if (sources.count == 0 || !sources.copies(0))
+            Arrays.fill(target, row, row + width, 0);
+        for (int s = 0; s < sources.count; s++) {
+            // Samples are gathered to the front of the scratch row
+            int[] source = sources.rasters[s];
+            if (source != null) {
+                int sourceRow = y * step * sourceWidth;
+                for (int x = 0; x < width; x++)
+                    scratch[x] = source[sourceRow + x * step];
+            } else {
+                sources.layers[s].readSpan(0, y * step, sourceWidth, scratch, 0);
+                for (int x = 1; x < width; x++)
+                    scratch[x] = scratch[x * step];
+            }
+            if (s == 0 && sources.copies(0))
+                System.arraycopy(scratch, 0, target, row, width);
+            else
+                blendSpan(s, scratch, 0, row, width);
+        }
+    }
+
+    void blendSpan(int s, int[] source, int offset, int from, int length) {
+        if (premultiplied) {
+            blendSpanPremultiplied(s, source, offset, from, length);
+            return;
+        }
+        int[] target = this.target;
+        BlendMode mode = sources.modes[s];
+        int opacity = sources.opacities[s];
+        int end = offset + length;
+
+        if (mode == BlendMode.NORMAL && opacity == 255) {
+            for (int i = from, j = offset; j < end; i++, j++) {
+                int p = source[j];
+                int a = p >>> 24;
+                if (a == 0) continue;
+                target[i] = (a == 255) ? p : srcOver(p, target[i]);
+            }
+        } else if (mode == BlendMode.NORMAL) {
+            for (int i = from, j = offset; j < end; i++, j++) {
+                int p = source[j];
+                int a = div255((p >>> 24) * opacity);
+                if (a == 0) continue;
+                target[i] = srcOver(a << 24 | (p & 0xFFFFFF), target[i]);
+            }
+        } else {
+            for (int i = from, j = offset; j < end; i++, j++) {
+                int p = source[j];
+                int a = div255((p >>> 24) * opacity);
+                if (a == 0) continue;
+                target[i] = blend(mode, p, a, target[i]);
+            }
+        }
+    }
+
+    void blendSpanPremultiplied(int s, int[] source, int offset, int from, int length) {
+        int[] target = this.target;
+        BlendMode mode = sources.modes[s];
+        int opacity = sources.opacities[s];
+        int end = offset + length;
+
+        if (mode == BlendMode.NORMAL && opacity == 255) {
+            for (int i = from, j = offset; j < end; i++, j++) {
+                int p = source[j];
+                int a = p >>> 24;
+                if (a == 0) continue;
+                target[i] = (a == 255) ? p : srcOverPremultiplied(p, target[i]);
+            }
+        } else if (mode == BlendMode.NORMAL) {
+            for (int i = from, j = offset; j < end; i++, j++) {
+                int p = scale(source[j], opacity);
+                if (p == 0) continue;
+                target[i] = srcOverPremultiplied(p, target[i]);
+            }
+        } else {
+            // Separable modes need the plain colors
+            for (int i = from, j = offset; j < end; i++, j++) {
+                int p = source[j];
+                int a = div255((p >>> 24) * opacity);
+                if (a == 0) continue;
+                target[i] = Gradient.premultiply(blend(mode, Gradient.unpremultiply(p), a, Gradient.unpremultiply(target[i])));
+            }
+        }
+    }
+
+    /**
+     * Premultiplied source-over of two ARGB pixels.
+     * Red with blue and alpha with green are multiplied in pairs, each in its own 16-bit half of an int.
+     */
+    static int srcOverPremultiplied(int src, int dst) {
+        int ia = 255 - (src >>> 24);
+        int rb = (dst & 0xFF00FF) * ia + 0x800080;
+        rb = ((rb + ((rb >> 8) & 0xFF00FF)) >> 8) & 0xFF00FF;
+        int ag = ((dst >>> 8) & 0xFF00FF) * ia + 0x800080;
+        ag = (ag + ((ag >> 8) & 0xFF00FF)) & 0xFF00FF00;
+        return src + (rb | ag);
+    }
+
+    /**
+     * Multiplies all components of the premultiplied pixel by the factor in range [0-255].
+     */
+    static int scale(int pixel, int factor) {
+        int rb = (pixel & 0xFF00FF) * factor + 0x800080;
+        rb = ((rb + ((rb >> 8) & 0xFF00FF)) >> 8) & 0xFF00FF;
+        int ag = ((pixel >>> 8) & 0xFF00FF) * factor + 0x800080;
+        ag = (ag + ((ag >> 8) & 0xFF00FF)) & 0xFF00FF00;
+        return rb | ag;
+    }
+
+    /**
+     * Separable blend of the source color with the destination, placed over the destination with the given alpha.
+     * Where the destination is transparent the source color is used as it is.
+     */
+    static int blend(BlendMode mode, int src, int alpha, int dst) {
+        int sr = (src >> 16) & 0xFF, sg = (src >> 8) & 0xFF, sb = src & 0xFF;
+        int dr = (dst >> 16) & 0xFF, dg = (dst >> 8) & 0xFF, db = dst & 0xFF;
+        int r, g, b;
+        switch (mode) {
+            case ADD -> {
+                r = Math.min(sr + dr, 255);
+                g = Math.min(sg + dg, 255);
+                b = Math.min(sb + db, 255);
+            }
+            case MULTIPLY -> {
+                r = div255(sr * dr);
+                g = div255(sg * dg);
+                b = div255(sb * db);
+            }
+            case SCREEN -> {
+                r = sr + dr - div255(sr * dr);
+                g = sg + dg - div255(sg * dg);
+                b = sb + db - div255(sb * db);
+            }
+            case MAX -> {
+                r = Math.max(sr, dr);
+                g = Math.max(sg, dg);
+                b = Math.max(sb, db);
+            }
+            case MIN -> {
+                r = Math.min(sr, dr);
+                g = Math.min(sg, dg);
+                b = Math.min(sb, db);
+            }
+            default -> {
+                r = sr;
+                g = sg;
+                b = sb;
+            }
+        }
+
+        int da = dst >>> 24;
+        if (da != 255) {
+            int ia = 255 - da;
+            r = div255(sr * ia + r * da);
+            g = div255(sg * ia + g * da);
+            b = div255(sb * ia + b * da);
+        }
+        return srcOver(alpha << 24 | r << 16 | g << 8 | b, dst);
+    }
+
+    /**
+     * Non-premultiplied source-over of two ARGB pixels.
+     */
+    static int srcOver(int src, int dst) {
+        int sa = src >>> 24;
+        if (sa == 255) return src;
+        if (sa == 0) return dst;
+        int da = dst >>> 24;
+        if (da == 0) return src;
+
+        int sr = (src >> 16) & 0xFF, sg = (src >> 8) & 0xFF, sb = src & 0xFF;
+        int dr = (dst >> 16) & 0xFF, dg = (dst >> 8) & 0xFF, db = dst & 0xFF;
+        int ia = 255 - sa;
+
+        // Opaque destination, the common case for layers on top of a background
+        if (da == 255) {
+            return 0xFF000000
+                    | div255(sr * sa + dr * ia) << 16
+                    | div255(sg * sa + dg * ia) << 8
+                    | div255(sb * sa + db * ia);
+        }
+
+        int dw = div255(da * ia);
+        int oa = sa + dw;
+        return oa << 24
+                | ((sr * sa + dr * dw) / oa) << 16
+                | ((sg * sa + dg * dw) / oa) << 8
+                | ((sb * sa + db * dw) / oa);
+    }
+
+    /**
+     * Rounded division by 255 for values in range [0-65025].
+     */
+    static int div255(int value) {
+        value += 128;
+        return (value + (value >> 8)) >> 8;
+    }
+
+    @SuppressWarnings("serial")
+    class Band extends RecursiveAction {
+        final int y0, y1;
+        int[] scratch;
+
+        Band(int y0, int y1) {
+            this.y0 = y0;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            if (scratch == null)
+                scratch = new int[sourceWidth];
+            compositeRows(y0, y1, scratch);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package sher.argon.core.renderer;
+
+import sher.argon.Layer;
+
+/**
+ * Adjacent layers blended once into a cached raster.
+ * The cache is re-blended only over the tiles where a member has changed.
+ */
+class FrozenGroup {
+    final Layer[] layers;
+    final int[] cache;
+    final SourceList sources;
+
+    // Index of the bottom member in the renderer's layers array, -1 if the members are no longer adjacent
+    int first;
+    boolean stale, changed;
+
+    FrozenGroup(Layer[] layers, int width, int height) {
+        this.layers = layers;
+        cache = new int[width * height];
+        sources = new SourceList();
+        first = -1;
+        stale = true;
+        changed = false;
+    }
+
+    boolean contains(Layer layer) {
+        for (Layer member : layers) {
+            if (member == layer)
+                return true;
+        }
+        return false;
+    }
+}
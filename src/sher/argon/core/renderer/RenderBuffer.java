@@ -0,0 +1,19 @@
+package sher.argon.core.renderer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+class RenderBuffer {
+    final BufferedImage image;
+    final int[] raster;
+    // Tiles changed since the buffer was last composited
+    final boolean[] pending;
+    boolean full;
+
+    RenderBuffer(int width, int height, int imageType, int tiles) {
+        image = new BufferedImage(width, height, imageType);
+        raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        pending = new boolean[tiles];
+        full = true;
+    }
+}
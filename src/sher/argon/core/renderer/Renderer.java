@@ -5,30 +5,84 @@ import sher.argon.Layer;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Renderer {
+    // Ready buffer's index with a flag set when it holds a frame the viewport has not taken yet
+    static final int INDEX = 0b11, FRESH = 0b100;
+
     int width, height;
-    BufferedImage renderImage;
-    Graphics2D renderGraphics;
-    int[] rendererRaster;
+    // Frames are composited at 1/previewScale of the canvas resolution
+    int previewScale;
+    // Layers and frames hold colors premultiplied by alpha
+    boolean premultiplied;
+
+    // Triple buffering: frames are composited into the back buffer and published as ready, the viewport swaps the ready buffer for its front one
+    RenderBuffer[] buffers;
+    int back, front;
+    AtomicInteger ready;
+    // Last published buffer, stable until the next combineLayers() call
+    volatile RenderBuffer latest;
+
+    // Copy-on-write array, iterated every frame without allocations
+    volatile Layer[] layers;
+    Compositor compositor, frameCompositor;
+    SourceList sources;
+
+    // Incremental compositing
+    boolean incremental, fullFrame;
+    int tileColumns, tileRows;
+    boolean[] dirtyMask;
+    Rectangle dirtyBounds;
+    // Layer versions at the last composite, indexed as the layers array
+    Layer[] versionedLayers;
+    long[] versions;
+
+    // Frozen groups, copy-on-write like the layers
+    volatile FrozenGroup[] groups;
+    FrozenGroup[] plannedGroups;
+    // Group of each layer, indexed as the layers array
+    FrozenGroup[] layerGroups;
 
-    CopyOnWriteArrayList<Layer> layers;
+    // Snapshots of the layers, composited instead of the layers while other threads write to them
+    ReentrantLock snapshotLock;
+    Layer[] snapshotLayers;
+    int[][] snapshotRasters;
+    long[] snapshotVersions;
+    // Tiles changed since the last composite, over all layers and per layer
+    boolean[] snapshotMask, snapshotChanged, layerMask;
+    // The last composite used the snapshots
+    boolean snapshotted;
+    // Snapshots of a preview frame are kept for copyRenderImage() until released
+    boolean pinned;
 
     public Renderer(int width, int height) {
         this.width = width;
         this.height = height;
 
-        renderImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        renderGraphics = renderImage.createGraphics();
-        renderGraphics.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-        renderGraphics.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-//        renderGraphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC));
-        renderGraphics.setBackground(new Color(0, 0, 0, 0));
+        layers = new Layer[0];
+        premultiplied = false;
+        compositor = new Compositor(width, height);
+        sources = new SourceList();
 
-        rendererRaster = ((DataBufferInt) renderImage.getRaster().getDataBuffer()).getData();
+        incremental = false;
+        fullFrame = true;
+        tileColumns = (width + Layer.TILE_SIZE - 1) >> Layer.TILE_SHIFT;
+        tileRows = (height + Layer.TILE_SIZE - 1) >> Layer.TILE_SHIFT;
+        dirtyMask = new boolean[tileColumns * tileRows];
+        dirtyBounds = new Rectangle(0, 0, width, height);
+        versions = new long[0];
+        groups = new FrozenGroup[0];
 
-        layers = new CopyOnWriteArrayList<>();
+        snapshotLock = new ReentrantLock();
+        snapshotMask = new boolean[dirtyMask.length];
+        layerMask = new boolean[dirtyMask.length];
+        snapshotted = false;
+        pinned = false;
+
+        setPreviewScale(1);
     }
 
     public int getWidth() {
@@ -38,26 +92,455 @@ public class Renderer {
         return height;
     }
 
-    public void addLayer(Layer layer) {
-        layers.add(layer);
+    /**
+     * Adds the layer on top of the others.
+     * @throws IllegalArgumentException if the layer's premultiplied format differs from the renderer's
+     */
+    public synchronized void addLayer(Layer layer) {
+        if (layer.isPremultiplied() != premultiplied)
+            throw new IllegalArgumentException("Layer format does not match the renderer");
+        Layer[] newLayers = Arrays.copyOf(layers, layers.length + 1);
+        newLayers[layers.length] = layer;
+        layers = newLayers;
+        fullFrame = true;
     }
-    public void removeLayer(Layer layer) {
-        layers.remove(layer);
+    public synchronized void removeLayer(Layer layer) {
+        Layer[] newLayers = new Layer[layers.length];
+        int count = 0;
+        for (Layer l : layers) {
+            if (l != layer)
+                newLayers[count++] = l;
+        }
+        layers = Arrays.copyOf(newLayers, count);
+        unfreeze(new Layer[]{layer});
+        fullFrame = true;
     }
     public int getLayersCount() {
-        return layers.size();
+        return layers.length;
+    }
+
+    /**
+     * Freezes adjacent layers into a group blended once into a cached raster.
+     * The cache replaces the members when compositing and is re-blended only where a member has been written to.
+     * @throws IllegalArgumentException if a layer is not added, already frozen or the layers are not adjacent
+     */
+    public synchronized void freeze(Layer[] members) {
+        Layer[] layers = this.layers;
+        int[] indices = new int[members.length];
+        for (int m = 0; m < members.length; m++) {
+            indices[m] = -1;
+            for (int i = 0; i < layers.length; i++) {
+                if (layers[i] == members[m])
+                    indices[m] = i;
+            }
+            if (indices[m] == -1)
+                throw new IllegalArgumentException("Layer is not added to the renderer");
+            for (FrozenGroup group : groups) {
+                if (group.contains(members[m]))
+                    throw new IllegalArgumentException("Layer is already frozen");
+            }
+        }
+        Arrays.sort(indices);
+        for (int m = 1; m < indices.length; m++) {
+            if (indices[m] != indices[m-1] + 1)
+                throw new IllegalArgumentException("Frozen layers must be adjacent");
+        }
+
+        // Members are kept in the stack order
+        Layer[] sorted = new Layer[indices.length];
+        for (int m = 0; m < indices.length; m++)
+            sorted[m] = layers[indices[m]];
+        FrozenGroup[] newGroups = Arrays.copyOf(groups, groups.length + 1);
+        newGroups[groups.length] = new FrozenGroup(sorted, width, height);
+        groups = newGroups;
+    }
+    /**
+     * Drops the cached rasters of the groups containing any of the layers.
+     */
+    public synchronized void unfreeze(Layer[] members) {
+        FrozenGroup[] newGroups = new FrozenGroup[groups.length];
+        int count = 0;
+        for (FrozenGroup group : groups) {
+            boolean keep = true;
+            for (Layer member : members) {
+                if (group.contains(member))
+                    keep = false;
+            }
+            if (keep)
+                newGroups[count++] = group;
+        }
+        if (count != groups.length)
+            groups = Arrays.copyOf(newGroups, count);
+    }
+
+    /**
+     * Sets the resolution divider of the rendered frames.
+     * Preview frames sample every {@code scale}-th canvas pixel, full resolution frames are still available with {@link #copyRenderImage(BufferedImage)}.
+     * Must not be called while frames are being rendered or painted.
+     */
+    public void setPreviewScale(int scale) {
+        if (scale < 1) throw new IllegalArgumentException("Preview scale must be at least 1");
+        previewScale = scale;
+        int frameWidth = (width + scale - 1) / scale;
+        int frameHeight = (height + scale - 1) / scale;
+        frameCompositor = (scale == 1) ? compositor : new Compositor(frameWidth, frameHeight, scale, width);
+        frameCompositor.premultiplied = premultiplied;
+
+        buffers = new RenderBuffer[3];
+        for (int b = 0; b < buffers.length; b++)
+            buffers[b] = new RenderBuffer(frameWidth, frameHeight, getImageType(), dirtyMask.length);
+        back = 0;
+        ready = new AtomicInteger(1);
+        front = 2;
+        latest = buffers[front];
+        fullFrame = true;
+    }
+    public int getPreviewScale() {
+        return previewScale;
+    }
+
+    /**
+     * Sets whether the layers and rendered frames hold colors premultiplied by alpha, {@link BufferedImage#TYPE_INT_ARGB_PRE}.
+     * Premultiplied compositing is a multiply-add per pixel without any division.
+     * Must be called before any layer is added.
+     * @throws IllegalStateException if layers have already been added
+     */
+    public void setPremultiplied(boolean premultiplied) {
+        if (layers.length > 0) throw new IllegalStateException("Layers already added");
+        this.premultiplied = premultiplied;
+        compositor.premultiplied = premultiplied;
+        setPreviewScale(previewScale);
+    }
+    public boolean isPremultiplied() {
+        return premultiplied;
+    }
+    /**
+     * Returns the type of the rendered images, {@link BufferedImage#TYPE_INT_ARGB} or {@link BufferedImage#TYPE_INT_ARGB_PRE}.
+     */
+    public int getImageType() {
+        return premultiplied ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_ARGB;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        fullFrame = true;
+    }
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Composites the layers onto the render image.
+     * In incremental mode the frame is skipped if no layer has changed since the previous call.
+     * In preview mode the frame is composited from a {@link #snapshot() snapshot} of the layers, which {@link #copyRenderImage(BufferedImage)} composites again at full resolution.
+     * @return true if the render image has changed
+     */
+    public boolean combineLayers() {
+        if (previewScale != 1) {
+            releaseSnapshot();
+            snapshot();
+            return combineSnapshot();
+        }
+        // Compositing the layers directly consumes their changes, the next snapshot copies them whole
+        snapshotLayers = null;
+        return combine(this.layers, null);
+    }
+
+    /**
+     * Copies the layers' changed tiles into snapshots of the layers, which {@link #combineSnapshot()} composites instead of the layers themselves.
+     * Every layer is copied whole the first time, the snapshots take as much memory as the heap layers.
+     * <br>
+     * Must be called while no other thread writes to the layers, typically as a {@link sher.argon.core.chronos.Chronos#setPublisher(Runnable) publisher} between clock ticks.
+     * Skipped while a snapshot is being composited or a preview frame's snapshot is kept, the changes are then copied by the next call.
+     */
+    public void snapshot() {
+        if (!snapshotLock.tryLock())
+            return;
+        try {
+            if (pinned)
+                return;
+            Layer[] layers = this.layers;
+            if (snapshotLayers != layers)
+                resnap(layers);
+            for (int i = 0; i < layers.length; i++) {
+                Layer layer = layers[i];
+                long version = layer.getVersion();
+                if (version == snapshotVersions[i]) continue;
+                snapshotVersions[i] = version;
+
+                Arrays.fill(layerMask, false);
+                if (snapshotRasters[i] == null) {
+                    snapshotRasters[i] = new int[width * height];
+                    layer.collectDirtyTiles(layerMask);
+                    Arrays.fill(layerMask, true);
+                } else if (!layer.collectDirtyTiles(layerMask)) {
+                    continue;
+                }
+                copyTiles(layer, snapshotRasters[i], layerMask);
+                snapshotChanged[i] = true;
+                for (int t = 0; t < layerMask.length; t++)
+                    snapshotMask[t] |= layerMask[t];
+            }
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Composites the last {@link #snapshot() snapshot} of the layers onto the render image, as {@link #combineLayers()} does with the layers.
+     * Other threads can keep writing to the layers meanwhile, the frame only shows what they had written by the snapshot.
+     * In preview mode the snapshot is kept for {@link #copyRenderImage(BufferedImage)} until {@link #releaseSnapshot()}.
+     * @return true if the render image has changed
+     */
+    public boolean combineSnapshot() {
+        snapshotLock.lock();
+        try {
+            if (snapshotLayers == null)
+                return false;
+            pinned = previewScale != 1;
+            return combine(snapshotLayers, snapshotRasters);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+    /**
+     * Lets {@link #snapshot()} replace the snapshot kept for the last preview frame, typically right before the next snapshot is published.
+     */
+    public void releaseSnapshot() {
+        snapshotLock.lock();
+        try {
+            pinned = false;
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    // Snapshots are kept for the layers still present
+    void resnap(Layer[] layers) {
+        int[][] rasters = new int[layers.length][];
+        long[] versions = new long[layers.length];
+        Arrays.fill(versions, -1);
+        for (int i = 0; i < layers.length && snapshotLayers != null; i++) {
+            for (int j = 0; j < snapshotLayers.length; j++) {
+                if (snapshotLayers[j] == layers[i]) {
+                    rasters[i] = snapshotRasters[j];
+                    versions[i] = snapshotVersions[j];
+                }
+            }
+        }
+        snapshotLayers = layers;
+        snapshotRasters = rasters;
+        snapshotVersions = versions;
+        snapshotChanged = new boolean[layers.length];
+    }
+
+    void copyTiles(Layer layer, int[] raster, boolean[] mask) {
+        for (int ty = 0; ty < tileRows; ty++) {
+            for (int tx = 0; tx < tileColumns; tx++) {
+                if (!mask[ty * tileColumns + tx]) continue;
+                int x = tx << Layer.TILE_SHIFT;
+                int y0 = ty << Layer.TILE_SHIFT;
+                int length = Math.min(Layer.TILE_SIZE, width - x);
+                int y1 = Math.min(y0 + Layer.TILE_SIZE, height);
+                for (int y = y0; y < y1; y++)
+                    layer.readSpan(x, y, length, raster, y * width + x);
+            }
+        }
+    }
+
+    // Rasters are the layers' snapshots, or null to read the layers themselves
+    boolean combine(Layer[] layers, int[][] rasters) {
+        FrozenGroup[] groups = this.groups;
+        // Arrays are only re-allocated when layers or groups change
+        if (versionedLayers != layers || plannedGroups != groups || snapshotted != (rasters != null))
+            plan(layers, groups);
+        snapshotted = rasters != null;
+
+        sources.clear();
+        boolean changed = false;
+        for (int i = 0; i < layers.length; i++) {
+            Layer layer = layers[i];
+            FrozenGroup group = layerGroups[i];
+            // The group's cache takes the place of its bottom member
+            if (group != null && group.first == i)
+                sources.add(group.cache, null);
+            // Snapshot changes are consumed at once, hidden layers included
+            if (rasters != null && snapshotChanged[i]) {
+                snapshotChanged[i] = false;
+                changed = true;
+                if (group != null)
+                    group.changed = true;
+            }
+            if (!layer.render()) continue;
+            if (group == null)
+                sources.add((rasters == null) ? layer.raster : rasters[i], layer);
+            if (rasters != null) continue;
+            // Unchanged version means no new dirty tiles, the scan is skipped
+            long version = layer.getVersion();
+            if (version != versions[i]) {
+                versions[i] = version;
+                if (layer.collectDirtyTiles(dirtyMask)) {
+                    changed = true;
+                    if (group != null)
+                        group.changed = true;
+                }
+            }
+        }
+
+        if (rasters != null) {
+            for (int t = 0; t < snapshotMask.length; t++)
+                dirtyMask[t] |= snapshotMask[t];
+            Arrays.fill(snapshotMask, false);
+        }
+
+        int dirtyTiles = 0;
+        int tx0 = tileColumns, ty0 = tileRows, tx1 = -1, ty1 = -1;
+        if (changed) {
+            for (int ty = 0; ty < tileRows; ty++) {
+                for (int tx = 0; tx < tileColumns; tx++) {
+                    if (dirtyMask[ty * tileColumns + tx]) {
+                        dirtyTiles++;
+                        tx0 = Math.min(tx0, tx);
+                        tx1 = Math.max(tx1, tx);
+                        ty0 = Math.min(ty0, ty);
+                        ty1 = Math.max(ty1, ty);
+                    }
+                }
+            }
+        }
+
+        for (FrozenGroup group : groups) {
+            if (group.first == -1) continue;
+            if (group.stale)
+                bake(group, rasters, null, 0);
+            else if (group.changed)
+                bake(group, rasters, dirtyMask, dirtyTiles);
+            group.stale = false;
+            group.changed = false;
+        }
+
+        boolean full = !incremental || fullFrame;
+        fullFrame = false;
+        if (full) {
+            for (RenderBuffer buffer : buffers)
+                buffer.full = true;
+            dirtyBounds.setBounds(0, 0, width, height);
+        } else if (!changed) {
+            dirtyBounds.setBounds(0, 0, 0, 0);
+            return false;
+        } else {
+            // Every buffer has to catch up on the frame's changes once it becomes the back buffer
+            for (RenderBuffer buffer : buffers) {
+                if (buffer.full) continue;
+                for (int t = 0; t < dirtyMask.length; t++)
+                    buffer.pending[t] |= dirtyMask[t];
+            }
+            int x = tx0 << Layer.TILE_SHIFT;
+            int y = ty0 << Layer.TILE_SHIFT;
+            dirtyBounds.setBounds(x, y,
+                    Math.min((tx1 + 1) << Layer.TILE_SHIFT, width) - x,
+                    Math.min((ty1 + 1) << Layer.TILE_SHIFT, height) - y);
+        }
+        if (changed)
+            Arrays.fill(dirtyMask, false);
+
+        RenderBuffer target = buffers[back];
+        if (target.full || previewScale != 1) {
+            // Preview frames are small enough to be composited whole
+            frameCompositor.composite(sources, target.raster, null, 0);
+            target.full = false;
+        } else {
+            int pendingTiles = 0;
+            for (boolean pending : target.pending) {
+                if (pending)
+                    pendingTiles++;
+            }
+            compositor.composite(sources, target.raster, target.pending, pendingTiles);
+        }
+        Arrays.fill(target.pending, false);
+        publish();
+        return true;
+    }
+
+    void publish() {
+        latest = buffers[back];
+        back = ready.getAndSet(back | FRESH) & INDEX;
     }
 
-    public void combineLayers() {
-        for (int i = 0; i < rendererRaster.length; i++)
-            rendererRaster[i] = 0;
-        for (Layer layer : layers) {
-            if (layer.render())
-                renderGraphics.drawImage(layer.image, 0, 0, null);
+    /**
+     * Returns the most recent frame for painting.
+     * The returned image is not written to until the next call, so this method must only be called from a single thread.
+     */
+    public BufferedImage acquireFrame() {
+        if ((ready.get() & FRESH) != 0)
+            front = ready.getAndSet(front) & INDEX;
+        return buffers[front].image;
+    }
+
+    void plan(Layer[] layers, FrozenGroup[] groups) {
+        versionedLayers = layers;
+        versions = new long[layers.length];
+        // Versions are never negative, every layer is collected once
+        Arrays.fill(versions, -1);
+
+        plannedGroups = groups;
+        layerGroups = new FrozenGroup[layers.length];
+        for (FrozenGroup group : groups) {
+            group.first = -1;
+            group.stale = true;
+            for (int i = 0; i + group.layers.length <= layers.length; i++) {
+                if (layers[i] == group.layers[0]
+                        && Arrays.equals(layers, i, i + group.layers.length, group.layers, 0, group.layers.length)) {
+                    group.first = i;
+                    for (int m = 0; m < group.layers.length; m++)
+                        layerGroups[i + m] = group;
+                    break;
+                }
+            }
         }
+        fullFrame = true;
+    }
 
+    void bake(FrozenGroup group, int[][] rasters, boolean[] mask, int maskedTiles) {
+        group.sources.clear();
+        for (int m = 0; m < group.layers.length; m++) {
+            Layer member = group.layers[m];
+            if (member.render())
+                group.sources.add((rasters == null) ? member.raster : rasters[group.first + m], member);
+        }
+        compositor.composite(group.sources, group.cache, mask, maskedTiles);
     }
+    /**
+     * Returns the canvas region changed by the last {@link #combineLayers()} call.
+     * The region is empty if nothing has changed.
+     */
+    public Rectangle getDirtyBounds() {
+        return dirtyBounds;
+    }
+    /**
+     * Returns the last composited frame, which is down-sampled in preview mode.
+     * The image is stable until the next {@link #combineLayers()} call.
+     */
     public BufferedImage getRenderImage() {
-        return renderImage;
+        return latest.image;
+    }
+    /**
+     * Writes the last composited frame at full canvas resolution into the image of {@link #getImageType() render type} and canvas dimensions.
+     * In preview mode the frame is composited directly into the image from the snapshot it was rendered from, otherwise it is copied.
+     * Must be called from the thread that calls {@link #combineLayers()}.
+     */
+    public void copyRenderImage(BufferedImage image) {
+        int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        if (previewScale == 1) {
+            System.arraycopy(latest.raster, 0, raster, 0, raster.length);
+            return;
+        }
+        // Snapshots are not copied into while composited
+        snapshotLock.lock();
+        try {
+            compositor.composite(sources, raster, null, 0);
+        } finally {
+            snapshotLock.unlock();
+        }
     }
 }
@@ -0,0 +1,57 @@
+package sher.argon.core.renderer;
+
+import sher.argon.BlendMode;
+import sher.argon.Layer;
+
+import java.util.Arrays;
+
+/**
+ * Compositing sources from bottom to top.
+ * Sources without a heap raster are read from their layers span by span.
+ */
+class SourceList {
+    int[][] rasters;
+    Layer[] layers;
+    BlendMode[] modes;
+    // Opacity in range [0-255]
+    int[] opacities;
+    int count;
+
+    SourceList() {
+        rasters = new int[0][];
+        layers = new Layer[0];
+        modes = new BlendMode[0];
+        opacities = new int[0];
+        count = 0;
+    }
+
+    void clear() {
+        count = 0;
+    }
+
+    void add(int[] raster, Layer layer) {
+        // Arrays only grow when layers are added
+        if (count == rasters.length) {
+            rasters = Arrays.copyOf(rasters, count + 1);
+            layers = Arrays.copyOf(layers, count + 1);
+            modes = Arrays.copyOf(modes, count + 1);
+            opacities = Arrays.copyOf(opacities, count + 1);
+        }
+        rasters[count] = raster;
+        layers[count] = layer;
+        modes[count] = (layer == null) ? BlendMode.NORMAL : layer.getBlendMode();
+        opacities[count] = (layer == null) ? 255 : Math.round(layer.getOpacity() * 255);
+        count++;
+    }
+
+    /**
+     * Returns whether the source can be copied onto a cleared target instead of blended.
+     */
+    boolean copies(int s) {
+        return modes[s] == BlendMode.NORMAL && opacities[s] == 255;
+    }
+
+    void add(Layer layer) {
+        add(layer.raster, layer);
+    }
+}
@@ -1,5 +1,7 @@
 package sher.argon.core.window;
 
+import sher.argon.core.chronos.ClockStats;
+import sher.argon.core.renderer.Renderer;
 import sher.argon.core.window.button.Toggle;
 import sher.argon.core.window.ui.LightScrollBarUI;
 import sher.argon.variable.Variable;
@@ -8,32 +10,32 @@ import javax.swing.*;
 import javax.swing.border.EtchedBorder;
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 
 public class Window {
     int width, height;
     JFrame frame;
     JPanel renderPanel, sidePanel;
-    BufferedImage imageReference;
+    Renderer renderer;
     WindowListener windowListener;
 
     public Toggle chronosToggle, recordingToggle;
     JButton resetButton, captureButton;
     JLabel[][] clocksTable;
 
-    public Window(int width, int height, BufferedImage imageReference, WindowListener windowListener) {
+    public Window(int width, int height, Renderer renderer, WindowListener windowListener) {
         this.width = width;
         this.height = height;
         this.windowListener = windowListener;
 
-        this.imageReference = imageReference;
+        this.renderer = renderer;
 
         renderPanel = new JPanel() {
             @Override
             public void paintComponent(Graphics g) {
                 super.paintComponent(g);
-                g.drawImage(imageReference, 0, 0, width, height, null);
+                // The front buffer is never written to by the renderer while it is painted
+                g.drawImage(renderer.acquireFrame(), 0, 0, width, height, null);
             }
         };
         renderPanel.setPreferredSize(new Dimension(width, height));
@@ -105,6 +107,17 @@ public class Window {
     public void draw() {
         renderPanel.repaint();
     }
+    public void draw(Rectangle region) {
+        if (region.isEmpty()) return;
+        // Canvas to viewport coordinates, widened by a pixel for the scaling filter
+        double scaleX = (double) width / renderer.getWidth();
+        double scaleY = (double) height / renderer.getHeight();
+        int x0 = (int) Math.floor(region.x * scaleX) - 1;
+        int y0 = (int) Math.floor(region.y * scaleY) - 1;
+        int x1 = (int) Math.ceil((region.x + region.width) * scaleX) + 1;
+        int y1 = (int) Math.ceil((region.y + region.height) * scaleY) + 1;
+        renderPanel.repaint(x0, y0, x1 - x0, y1 - y0);
+    }
 
     // Actions panel
     private JPanel createActionPanel(boolean recorder, int numClocks) {
@@ -179,14 +192,15 @@ public class Window {
         if (numClocks == 0)
             return buttonsPanel;
 
-        clocksTable = new JLabel[numClocks + 1][3];
-        clocksTable[0][0] = WindowUtil.decoratedLabel(new JLabel("Clock name"), WindowUtil.FontSize.SMALLER, WindowUtil.FontWeight.BOLD);
-        clocksTable[0][1] = WindowUtil.decoratedLabel(new JLabel("Calls"), WindowUtil.FontSize.SMALLER, WindowUtil.FontWeight.BOLD);
-        clocksTable[0][2] = WindowUtil.decoratedLabel(new JLabel("Time/call (ms)"), WindowUtil.FontSize.SMALLER, WindowUtil.FontWeight.BOLD);
+        String[] headers = {"Clock name", "Calls", "Time/call (ms)", "p99", "Max", "Late p99", "Jitter p99"};
+        clocksTable = new JLabel[numClocks + 1][headers.length];
+        for (int j = 0; j < headers.length; j++)
+            clocksTable[0][j] = WindowUtil.decoratedLabel(new JLabel(headers[j]), WindowUtil.FontSize.SMALLER, WindowUtil.FontWeight.BOLD);
         for (int i = 1; i <= numClocks; i++) {
             clocksTable[i][0] = WindowUtil.decoratedLabel(new JLabel("null"), WindowUtil.FontSize.SMALLER);
             clocksTable[i][1] = WindowUtil.decoratedLabel(new JLabel("0"), WindowUtil.FontSize.SMALLER);
-            clocksTable[i][2] = WindowUtil.decoratedLabel(new JLabel("0.0"), WindowUtil.FontSize.SMALLER);
+            for (int j = 2; j < headers.length; j++)
+                clocksTable[i][j] = WindowUtil.decoratedLabel(new JLabel("0.0"), WindowUtil.FontSize.SMALLER);
         }
         JPanel clocksPanel = new JPanel(new GridBagLayout());
         clocksPanel.setBorder(BorderFactory.createCompoundBorder(
@@ -218,12 +232,14 @@ public class Window {
 
             c.insets = new Insets(0, 5, 0, 5);
 
-            label = clocksTable[i][2];
-            label.setHorizontalAlignment(JLabel.TRAILING);
-            c.gridx = 2;
-            c.gridy = i;
-            c.weightx = 0;
-            clocksPanel.add(label, c);
+            for (int j = 2; j < clocksTable[i].length; j++) {
+                label = clocksTable[i][j];
+                label.setHorizontalAlignment(JLabel.TRAILING);
+                c.gridx = j;
+                c.gridy = i;
+                c.weightx = 0;
+                clocksPanel.add(label, c);
+            }
         }
 
         JPanel actionPanel = new JPanel(new BorderLayout());
@@ -275,13 +291,29 @@ public class Window {
     }
 
     public void updateSceneTimes(String[] clockNames, int[] callCounters, float[] avgExecTimes) {
-        for (int i = 0; i < clocksTable.length-1; i++) {
+        // Clocks added or removed after the table was built are not shown
+        for (int i = 0; i < Math.min(clocksTable.length-1, clockNames.length); i++) {
             clocksTable[i+1][0].setText(clockNames[i]);
             clocksTable[i+1][1].setText(String.valueOf(callCounters[i]));
             clocksTable[i+1][2].setText(String.format("%.1f", avgExecTimes[i]));
         }
     }
 
+    public void updateClockStats(String[] clockNames, ClockStats[] stats) {
+        for (int i = 0; i < Math.min(clocksTable.length-1, clockNames.length); i++) {
+            ClockStats clockStats = stats[i];
+            clocksTable[i+1][3].setText(String.format("%.1f", clockStats.execP99));
+            clocksTable[i+1][4].setText(String.format("%.1f", clockStats.execMax));
+            clocksTable[i+1][5].setText(String.format("%.1f", clockStats.latenessP99));
+            clocksTable[i+1][6].setText(String.format("%.1f", clockStats.jitterP99));
+            clocksTable[i+1][0].setToolTipText(String.format(
+                    "<html>Time p50/p99/max: %.2f / %.2f / %.2f ms<br>Lateness p50/p99/max: %.2f / %.2f / %.2f ms<br>Jitter p50/p99/max: %.2f / %.2f / %.2f ms</html>",
+                    clockStats.execP50, clockStats.execP99, clockStats.execMax,
+                    clockStats.latenessP50, clockStats.latenessP99, clockStats.latenessMax,
+                    clockStats.jitterP50, clockStats.jitterP99, clockStats.jitterMax));
+        }
+    }
+
     public void stopRecordingDecoration() {
         chronosToggle.setEnabled(true);
         resetButton.setEnabled(true);
@@ -2,30 +2,125 @@ package sher.argon.parallel;
 
 import sher.argon.math.Calc;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Parallel is a tool to simplify the utilization of parallel computing and iteration.
- * The class uses Java {@link Thread threads}.
+ * The class runs on a long-lived {@link ForkJoinPool}, by default the shared {@link WorkerPool worker pool}, so no threads are created per call.
+ * The index range is split adaptively and idle workers steal the remaining parts, which evens out iterations of uneven cost.
+ * <br>
+ * Alternatively, the function can run on {@link VirtualThreads virtual threads}, one per requested thread, selected in the constructor or by the {@value VirtualThreads#PROPERTY} system property.
  * @see ParallelFunction
+ * @see ParallelRangeFunction
+ * @see ParallelTiles
  */
 public class Parallel {
-    ParallelFunction parallelFunction;
+    // Leaf ranges per thread, enough for stealing to balance uneven iterations
+    static final int SPLITS_PER_THREAD = 8;
+
+    ParallelRangeFunction rangeFunction;
+    ForkJoinPool pool;
+    // Runs on new virtual threads instead of the pool
+    boolean virtual;
 
     /**
-     * Creates the parallel instance.
+     * Creates the parallel instance running on the shared {@link WorkerPool worker pool}.
      * The {@link ParallelFunction parallel function} is user-created object that is called across multiple threads.
      * @param parallelFunction parallel function
-     * @throws IllegalArgumentException if function is null or the task length is less than 1
+     * @throws IllegalArgumentException if function is null
      * @see ParallelFunction
      */
     public Parallel(ParallelFunction parallelFunction) {
+        this(range(parallelFunction), WorkerPool.get(), VirtualThreads.isRequested());
+    }
+
+    /**
+     * Creates the parallel instance running either on {@link VirtualThreads virtual threads} or the shared {@link WorkerPool worker pool}.
+     * @param parallelFunction parallel function
+     * @param virtualThreads virtual threads flag
+     * @throws IllegalArgumentException if function is null
+     * @see ParallelFunction
+     */
+    public Parallel(ParallelFunction parallelFunction, boolean virtualThreads) {
+        this(range(parallelFunction), WorkerPool.get(), virtualThreads);
+    }
+
+    /**
+     * Creates the parallel instance running on the given pool.
+     * @param parallelFunction parallel function
+     * @param pool pool to run the function on
+     * @throws IllegalArgumentException if function or pool is null
+     * @see ParallelFunction
+     */
+    public Parallel(ParallelFunction parallelFunction, ForkJoinPool pool) {
+        this(range(parallelFunction), pool, false);
+    }
+
+    /**
+     * Creates the parallel instance running on the shared {@link WorkerPool worker pool}.
+     * The {@link ParallelRangeFunction range function} is called with ranges of indices.
+     * @param rangeFunction range function
+     * @throws IllegalArgumentException if function is null
+     * @see ParallelRangeFunction
+     */
+    public Parallel(ParallelRangeFunction rangeFunction) {
+        this(rangeFunction, WorkerPool.get(), VirtualThreads.isRequested());
+    }
+
+    /**
+     * Creates the parallel instance running either on {@link VirtualThreads virtual threads} or the shared {@link WorkerPool worker pool}.
+     * @param rangeFunction range function
+     * @param virtualThreads virtual threads flag
+     * @throws IllegalArgumentException if function is null
+     * @see ParallelRangeFunction
+     */
+    public Parallel(ParallelRangeFunction rangeFunction, boolean virtualThreads) {
+        this(rangeFunction, WorkerPool.get(), virtualThreads);
+    }
+
+    /**
+     * Creates the parallel instance running on the given pool.
+     * The {@link ParallelRangeFunction range function} is called with ranges of indices.
+     * @param rangeFunction range function
+     * @param pool pool to run the function on
+     * @throws IllegalArgumentException if function or pool is null
+     * @see ParallelRangeFunction
+     */
+    public Parallel(ParallelRangeFunction rangeFunction, ForkJoinPool pool) {
+        this(rangeFunction, pool, false);
+    }
+
+    Parallel(ParallelRangeFunction rangeFunction, ForkJoinPool pool, boolean virtual) {
+        if (rangeFunction == null)
+            throw new IllegalArgumentException("Function is null");
+        if (pool == null)
+            throw new IllegalArgumentException("Pool is null");
+        this.rangeFunction = rangeFunction;
+        this.pool = pool;
+        this.virtual = virtual;
+    }
+
+    static ParallelRangeFunction range(ParallelFunction parallelFunction) {
         if (parallelFunction == null)
             throw new IllegalArgumentException("Function is null");
-        this.parallelFunction = parallelFunction;
+        return (from, to) -> {
+            for (int index = from; index < to; index++)
+                parallelFunction.function(index);
+        };
     }
 
     /**
-     * Initiates, starts and joins the threads.
-     * The size variable defines the upper index bound for multithreaded iteration.
+     * Runs the function for every index in range [0-size) and waits for completion.
+     * Range functions are called with non-overlapping ranges covering [0-size).
+     * On the pool, the number of threads running at once is bounded by the pool's parallelism, and with a single thread the function runs on the calling thread.
+     * On virtual threads, exactly the given number of threads is started,
+     * and interrupting the caller stops the remaining ranges from starting, the method still returns only once the running ones complete, with the interrupt status set.
+     * On the pool, interrupts are ignored and every range is run.
+     * Exceptions thrown by the function are rethrown by this method.
      * @param size {@link ParallelFunction function's} index upper bound
      * @param threadsCount number of utilized threads.
      * @throws IllegalArgumentException if size or threads count is less than 1
@@ -34,26 +129,99 @@ public class Parallel {
         if (size < 1 || threadsCount < 1)
             throw new IllegalArgumentException("Size or Threads count less than 1");
 
-        Thread[] threads = new Thread[threadsCount];
-        for (int t = 0; t < threads.length; t++) {
-            int startIndex = size * t / threads.length;
-            int endIndex = size * (t+1) / threads.length;
-            threads[t] = new Thread(() -> {
-                for (int index = startIndex; index < endIndex; index++) {
-                    parallelFunction.function(index);
-                }
-            });
+        if (virtual) {
+            startVirtual(size, threadsCount);
+            return;
         }
+        // More threads than the pool runs would only split the range finer
+        int threads = Math.min(threadsCount, pool.getParallelism());
+        if (threads == 1) {
+            rangeFunction.function(0, size);
+            return;
+        }
+        int threshold = Math.max(1, size / (threads * SPLITS_PER_THREAD));
+        pool.invoke(new RangeTask(0, size, threshold));
+    }
 
-        for (Thread thread : threads)
-            thread.start();
+    /**
+     * Runs the function for every index in range [0-size) on all the pool's threads and waits for completion.
+     * @param size {@link ParallelFunction function's} index upper bound
+     * @throws IllegalArgumentException if size is less than 1
+     */
+    public void start(int size) {
+        start(size, pool.getParallelism());
+    }
 
-        try {
-            for (Thread thread : threads)
-                thread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Runs the function for every index in range [0-size) without waiting for completion.
+     * The caller can continue with other work and wait for the returned future later, e.g. compute the next simulation step while the current frame renders.
+     * The future completes exceptionally if the function throws.
+     * @param size {@link ParallelFunction function's} index upper bound
+     * @param threadsCount number of utilized threads.
+     * @return future completed once every index is processed
+     * @throws IllegalArgumentException if size or threads count is less than 1
+     */
+    public CompletableFuture<Void> submit(int size, int threadsCount) {
+        if (size < 1 || threadsCount < 1)
+            throw new IllegalArgumentException("Size or Threads count less than 1");
+        return CompletableFuture.runAsync(() -> start(size, threadsCount), virtual ? VirtualThreads.executor() : pool);
+    }
+
+    /**
+     * Runs the function for every index in range [0-size) on all the pool's threads without waiting for completion.
+     * @param size {@link ParallelFunction function's} index upper bound
+     * @return future completed once every index is processed
+     * @throws IllegalArgumentException if size is less than 1
+     */
+    public CompletableFuture<Void> submit(int size) {
+        return submit(size, pool.getParallelism());
+    }
+
+    void startVirtual(int size, int threadsCount) {
+        int threads = Math.min(threadsCount, size);
+        int chunk = Math.max(1, size / (threads * SPLITS_PER_THREAD));
+        int chunks = (int) (((long) size + chunk - 1) / chunk);
+        // Chunks are handed out as threads become free
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Runnable worker = () -> {
+            try {
+                int c;
+                while ((c = next.getAndIncrement()) < chunks && error.get() == null) {
+                    int from = c * chunk;
+                    rangeFunction.function(from, (int) Math.min((long) from + chunk, size));
+                }
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            }
+        };
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = VirtualThreads.newThread(worker);
+            workers[t].start();
         }
+        // Workers are always joined, an interrupt only stops handing out the remaining chunks
+        boolean interrupted = false;
+        for (Thread thread : workers) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    next.set(chunks);
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        Throwable e = error.get();
+        if (e instanceof RuntimeException runtimeException)
+            throw runtimeException;
+        if (e instanceof Error err)
+            throw err;
     }
 
     @Deprecated
@@ -68,8 +236,7 @@ public class Parallel {
             int finalT = t;
             threads[t] = new Thread(() -> {
                 if (finalT != threadToLog) {
-                    for (int index = startIndex; index < endIndex; index++)
-                        parallelFunction.function(index);
+                    rangeFunction.function(startIndex, endIndex);
                 } else {
                     long time = System.currentTimeMillis();
                     for (int index = startIndex; index < endIndex; index++) {
@@ -77,7 +244,7 @@ public class Parallel {
                             time = System.currentTimeMillis();
                             System.out.println(String.format("%.1f", Calc.map(index, startIndex, endIndex, 0d, 1d) * 100d) + "% complete");
                         }
-                        parallelFunction.function(index);
+                        rangeFunction.function(index, index + 1);
                     }
                 }
             });
@@ -93,4 +260,26 @@ public class Parallel {
             e.printStackTrace();
         }
     }
+
+    @SuppressWarnings("serial")
+    class RangeTask extends RecursiveAction {
+        final int from, to, threshold;
+
+        RangeTask(int from, int to, int threshold) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                rangeFunction.function(from, to);
+                return;
+            }
+            // The forked half can be stolen by an idle worker
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, threshold), new RangeTask(middle, to, threshold));
+        }
+    }
 }
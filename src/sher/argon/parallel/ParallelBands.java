@@ -0,0 +1,159 @@
+package sher.argon.parallel;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelBands splits the index range into one contiguous band per worker and gives every worker the same band on every call.
+ * <br>
+ * The workers are long-lived threads owned by the instance, worker <code>t</code> of <code>n</code> always processes the indices [size*t/n-size*(t+1)/n).
+ * When the range covers the rows of a layer, each worker keeps touching the same region of the raster frame after frame, so the region tends to stay in that core's caches
+ * (the operating system keeps a busy thread on the same core or socket as long as it can).
+ * Unlike {@link Parallel}, there is no work-stealing, so the bands should be of similar cost. The per-worker timings show how even they are.
+ * <br>
+ * The workers are daemon threads, created on the first run and stopped by {@link #shutdown()}.
+ * @see ParallelRangeFunction
+ */
+public class ParallelBands {
+    ParallelRangeFunction rangeFunction;
+    int workersCount;
+
+    Thread[] workers;
+    Phaser phaser;
+    // Nanoseconds each worker spent on its band during the last run
+    long[] times;
+    AtomicReference<Throwable> error;
+    volatile int size;
+    volatile boolean stopped;
+
+    /**
+     * Creates the instance with one worker per available processor.
+     * @param rangeFunction range function
+     * @throws IllegalArgumentException if function is null
+     * @see ParallelRangeFunction
+     */
+    public ParallelBands(ParallelRangeFunction rangeFunction) {
+        this(rangeFunction, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the instance with the given number of workers.
+     * @param rangeFunction range function
+     * @param workersCount number of workers and bands
+     * @throws IllegalArgumentException if function is null or workers count is less than 1
+     * @see ParallelRangeFunction
+     */
+    public ParallelBands(ParallelRangeFunction rangeFunction, int workersCount) {
+        if (rangeFunction == null)
+            throw new IllegalArgumentException("Function is null");
+        if (workersCount < 1)
+            throw new IllegalArgumentException("Workers count less than 1");
+        this.rangeFunction = rangeFunction;
+        this.workersCount = workersCount;
+        times = new long[workersCount];
+        error = new AtomicReference<>();
+    }
+
+    /**
+     * Runs the function over the bands of the range [0-size), one band per worker, and waits for completion.
+     * Exceptions thrown by the function are rethrown by this method.
+     * @param size index upper bound
+     * @throws IllegalArgumentException if size is less than 1
+     * @throws IllegalStateException if the workers have been shut down
+     */
+    public synchronized void start(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Size less than 1");
+        if (stopped)
+            throw new IllegalStateException("Workers shut down");
+        if (workers == null)
+            startWorkers();
+
+        this.size = size;
+        // Releases the workers, then waits for all of them to finish their band
+        phaser.arriveAndAwaitAdvance();
+        phaser.arriveAndAwaitAdvance();
+
+        Throwable e = error.getAndSet(null);
+        if (e instanceof RuntimeException runtimeException)
+            throw runtimeException;
+        if (e instanceof Error err)
+            throw err;
+    }
+
+    void startWorkers() {
+        phaser = new Phaser(workersCount + 1);
+        workers = new Thread[workersCount];
+        for (int w = 0; w < workersCount; w++) {
+            int worker = w;
+            workers[w] = new Thread(() -> work(worker), "Argon band worker " + w);
+            workers[w].setDaemon(true);
+            workers[w].start();
+        }
+    }
+
+    void work(int worker) {
+        while (true) {
+            phaser.arriveAndAwaitAdvance();
+            if (stopped) {
+                phaser.arriveAndDeregister();
+                return;
+            }
+
+            int size = this.size;
+            int from = (int) ((long) size * worker / workersCount);
+            int to = (int) ((long) size * (worker + 1) / workersCount);
+            long time = System.nanoTime();
+            try {
+                if (from < to)
+                    rangeFunction.function(from, to);
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            }
+            times[worker] = System.nanoTime() - time;
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+
+    /**
+     * Returns the number of workers, which is also the number of bands.
+     * @return workers count
+     */
+    public int getWorkersCount() {
+        return workersCount;
+    }
+
+    /**
+     * Returns the time each worker spent on its band during the last run, indexed by worker.
+     * @return array of times in nanoseconds
+     */
+    public synchronized long[] getWorkerTimes() {
+        return times.clone();
+    }
+
+    /**
+     * Returns the ratio of the slowest worker's time to the average time during the last run.
+     * 1 means the bands are perfectly balanced, 2 means the slowest worker took twice the average and the others were idle half of the run.
+     * @return imbalance ratio, 1 before the first run
+     */
+    public synchronized double getImbalance() {
+        long max = 0, total = 0;
+        for (long time : times) {
+            max = Math.max(max, time);
+            total += time;
+        }
+        return (total == 0) ? 1 : (double) max * workersCount / total;
+    }
+
+    /**
+     * Stops the workers.
+     * The instance can no longer run afterwards.
+     */
+    public synchronized void shutdown() {
+        if (stopped)
+            return;
+        stopped = true;
+        if (workers != null)
+            phaser.arriveAndDeregister();
+    }
+}
@@ -0,0 +1,19 @@
+package sher.argon.parallel;
+
+/**
+ * User-defined function for use with {@link Parallel}, called with ranges of indices instead of single indices.
+ * Iterating over the range inside the function keeps the loop tight, which is faster for cheap iterations such as writing to a layer's raster.
+ * @see Parallel
+ */
+public interface ParallelRangeFunction {
+    /**
+     * The function is called across multiple threads.
+     * The ranges passed by the {@link Parallel} instance do not overlap and together cover the whole index range.
+     * <br>
+     * Of note: the contents of this function must be thread-safe
+     * @param from first index of the range, inclusive
+     * @param to last index of the range, exclusive
+     * @see Parallel
+     */
+    void function(int from, int to);
+}
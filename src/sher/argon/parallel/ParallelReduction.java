@@ -0,0 +1,270 @@
+package sher.argon.parallel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * ParallelReduction computes sums, minimums, maximums and histograms of per-index values in parallel, e.g. a layer's brightness histogram or the maximum particle speed.
+ * <br>
+ * The index range is split as in {@link Parallel} and every part accumulates into its own local value or array, which are combined once the parts complete.
+ * No locks, shared counters or boxing are involved.
+ * The reductions run on the shared {@link WorkerPool worker pool}.
+ * <br>
+ * Of note: the functions are called across multiple threads and must be thread-safe
+ */
+public class ParallelReduction {
+    static final int SUM = 0, MIN = 1, MAX = 2;
+
+    /**
+     * Sums the function's values over the indices in range [0-size).
+     * The order of additions is not defined, so the result can differ in the last bits between calls.
+     * @param size index upper bound
+     * @param function value of an index
+     * @return sum
+     * @throws IllegalArgumentException if size is less than 1
+     */
+    public static double sumDouble(int size, IntToDoubleFunction function) {
+        return reduceDouble(size, function, SUM);
+    }
+    /**
+     * Finds the minimum of the function's values over the indices in range [0-size).
+     * @param size index upper bound
+     * @param function value of an index
+     * @return minimum
+     * @throws IllegalArgumentException if size is less than 1
+     */
+    public static double minDouble(int size, IntToDoubleFunction function) {
+        return reduceDouble(size, function, MIN);
+    }
+    /**
+     * Finds the maximum of the function's values over the indices in range [0-size).
+     * @param size index upper bound
+     * @param function value of an index
+     * @return maximum
+     * @throws IllegalArgumentException if size is less than 1
+     */
+    public static double maxDouble(int size, IntToDoubleFunction function) {
+        return reduceDouble(size, function, MAX);
+    }
+
+    /**
+     * Sums the function's values over the indices in range [0-size).
+     * @param size index upper bound
+     * @param function value of an index
+     * @return sum
+     * @throws IllegalArgumentException if size is less than 1
+     */
+    public static long sumLong(int size, IntToLongFunction function) {
+        return reduceLong(size, function, SUM);
+    }
+    /**
+     * Finds the minimum of the function's values over the indices in range [0-size).
+     * @param size index upper bound
+     * @param function value of an index
+     * @return minimum
+     * @throws IllegalArgumentException if size is less than 1
+     */
+    public static long minLong(int size, IntToLongFunction function) {
+        return reduceLong(size, function, MIN);
+    }
+    /**
+     * Finds the maximum of the function's values over the indices in range [0-size).
+     * @param size index upper bound
+     * @param function value of an index
+     * @return maximum
+     * @throws IllegalArgumentException if size is less than 1
+     */
+    public static long maxLong(int size, IntToLongFunction function) {
+        return reduceLong(size, function, MAX);
+    }
+
+    /**
+     * Counts the indices in range [0-size) falling into each bin.
+     * The function returns the bin of an index, bins outside the range [0-bins) are not counted.
+     * @param size index upper bound
+     * @param bins number of bins
+     * @param binFunction bin of an index
+     * @return array of counts per bin
+     * @throws IllegalArgumentException if size or bins count is less than 1
+     */
+    public static int[] histogram(int size, int bins, IntUnaryOperator binFunction) {
+        if (bins < 1)
+            throw new IllegalArgumentException("Bins count less than 1");
+        HistogramTask task = new HistogramTask(0, size, threshold(size), bins, binFunction);
+        run(task);
+        return task.counts;
+    }
+
+    static double reduceDouble(int size, IntToDoubleFunction function, int operation) {
+        DoubleTask task = new DoubleTask(0, size, threshold(size), function, operation);
+        run(task);
+        return task.result;
+    }
+
+    static long reduceLong(int size, IntToLongFunction function, int operation) {
+        LongTask task = new LongTask(0, size, threshold(size), function, operation);
+        run(task);
+        return task.result;
+    }
+
+    static int threshold(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Size less than 1");
+        int threads = WorkerPool.parallelism();
+        return (threads == 1) ? size : Math.max(1, size / (threads * Parallel.SPLITS_PER_THREAD));
+    }
+
+    static void run(RecursiveAction task) {
+        ForkJoinPool pool = WorkerPool.get();
+        if (pool.getParallelism() == 1)
+            task.invoke();
+        else
+            pool.invoke(task);
+    }
+
+    @SuppressWarnings("serial")
+    static class DoubleTask extends RecursiveAction {
+        final int from, to, threshold, operation;
+        final IntToDoubleFunction function;
+        double result;
+
+        DoubleTask(int from, int to, int threshold, IntToDoubleFunction function, int operation) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.function = function;
+            this.operation = operation;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                DoubleTask left = new DoubleTask(from, middle, threshold, function, operation);
+                DoubleTask right = new DoubleTask(middle, to, threshold, function, operation);
+                invokeAll(left, right);
+                result = combine(left.result, right.result, operation);
+                return;
+            }
+
+            // Local accumulator, written to the task once at the end
+            double accumulator = function.applyAsDouble(from);
+            switch (operation) {
+                case SUM -> {
+                    for (int index = from + 1; index < to; index++)
+                        accumulator += function.applyAsDouble(index);
+                }
+                case MIN -> {
+                    for (int index = from + 1; index < to; index++)
+                        accumulator = Math.min(accumulator, function.applyAsDouble(index));
+                }
+                default -> {
+                    for (int index = from + 1; index < to; index++)
+                        accumulator = Math.max(accumulator, function.applyAsDouble(index));
+                }
+            }
+            result = accumulator;
+        }
+
+        static double combine(double a, double b, int operation) {
+            return switch (operation) {
+                case SUM -> a + b;
+                case MIN -> Math.min(a, b);
+                default -> Math.max(a, b);
+            };
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class LongTask extends RecursiveAction {
+        final int from, to, threshold, operation;
+        final IntToLongFunction function;
+        long result;
+
+        LongTask(int from, int to, int threshold, IntToLongFunction function, int operation) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.function = function;
+            this.operation = operation;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                LongTask left = new LongTask(from, middle, threshold, function, operation);
+                LongTask right = new LongTask(middle, to, threshold, function, operation);
+                invokeAll(left, right);
+                result = combine(left.result, right.result, operation);
+                return;
+            }
+
+            long accumulator = function.applyAsLong(from);
+            switch (operation) {
+                case SUM -> {
+                    for (int index = from + 1; index < to; index++)
+                        accumulator += function.applyAsLong(index);
+                }
+                case MIN -> {
+                    for (int index = from + 1; index < to; index++)
+                        accumulator = Math.min(accumulator, function.applyAsLong(index));
+                }
+                default -> {
+                    for (int index = from + 1; index < to; index++)
+                        accumulator = Math.max(accumulator, function.applyAsLong(index));
+                }
+            }
+            result = accumulator;
+        }
+
+        static long combine(long a, long b, int operation) {
+            return switch (operation) {
+                case SUM -> a + b;
+                case MIN -> Math.min(a, b);
+                default -> Math.max(a, b);
+            };
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class HistogramTask extends RecursiveAction {
+        final int from, to, threshold, bins;
+        final IntUnaryOperator binFunction;
+        int[] counts;
+
+        HistogramTask(int from, int to, int threshold, int bins, IntUnaryOperator binFunction) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.bins = bins;
+            this.binFunction = binFunction;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                HistogramTask left = new HistogramTask(from, middle, threshold, bins, binFunction);
+                HistogramTask right = new HistogramTask(middle, to, threshold, bins, binFunction);
+                invokeAll(left, right);
+                counts = left.counts;
+                for (int b = 0; b < bins; b++)
+                    counts[b] += right.counts[b];
+                return;
+            }
+
+            // Every part counts into its own array
+            int[] counts = new int[bins];
+            for (int index = from; index < to; index++) {
+                int bin = binFunction.applyAsInt(index);
+                if (bin >= 0 && bin < bins)
+                    counts[bin]++;
+            }
+            this.counts = counts;
+        }
+    }
+}
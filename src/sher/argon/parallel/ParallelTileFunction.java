@@ -0,0 +1,20 @@
+package sher.argon.parallel;
+
+/**
+ * User-defined function for use with {@link ParallelTiles}, called with rectangular tiles of a 2D area.
+ * @see ParallelTiles
+ */
+public interface ParallelTileFunction {
+    /**
+     * The function is called across multiple threads.
+     * The tiles passed by the {@link ParallelTiles} instance do not overlap and together cover the whole area.
+     * <br>
+     * Of note: the contents of this function must be thread-safe
+     * @param x0 tile's left coordinate, inclusive
+     * @param y0 tile's top coordinate, inclusive
+     * @param x1 tile's right coordinate, exclusive
+     * @param y1 tile's bottom coordinate, exclusive
+     * @see ParallelTiles
+     */
+    void function(int x0, int y0, int x1, int y1);
+}
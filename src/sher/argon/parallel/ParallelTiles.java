@@ -0,0 +1,123 @@
+package sher.argon.parallel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelTiles iterates over a 2D area, such as a layer, split into rectangular tiles processed in parallel.
+ * Tiles are handed out one by one to the threads as they become free, so tiles of uneven cost are balanced automatically.
+ * Like {@link Parallel}, the class runs on a long-lived {@link ForkJoinPool}, by default the shared {@link WorkerPool worker pool}.
+ * @see ParallelTileFunction
+ */
+public class ParallelTiles {
+    ParallelTileFunction tileFunction;
+    ForkJoinPool pool;
+    int tileWidth, tileHeight;
+
+    /**
+     * Creates the instance running on the shared {@link WorkerPool worker pool}.
+     * Default tile size is 64x64.
+     * @param tileFunction tile function
+     * @throws IllegalArgumentException if function is null
+     * @see ParallelTileFunction
+     */
+    public ParallelTiles(ParallelTileFunction tileFunction) {
+        this(tileFunction, WorkerPool.get());
+    }
+
+    /**
+     * Creates the instance running on the given pool.
+     * Default tile size is 64x64.
+     * @param tileFunction tile function
+     * @param pool pool to run the function on
+     * @throws IllegalArgumentException if function or pool is null
+     * @see ParallelTileFunction
+     */
+    public ParallelTiles(ParallelTileFunction tileFunction, ForkJoinPool pool) {
+        if (tileFunction == null)
+            throw new IllegalArgumentException("Function is null");
+        if (pool == null)
+            throw new IllegalArgumentException("Pool is null");
+        this.tileFunction = tileFunction;
+        this.pool = pool;
+        tileWidth = 64;
+        tileHeight = 64;
+    }
+
+    /**
+     * Sets the tile size.
+     * Wide tiles keep the rows of a raster contiguous in memory, small tiles balance better.
+     * @param tileWidth tile width
+     * @param tileHeight tile height
+     * @throws IllegalArgumentException if any of the dimensions are less than 1
+     */
+    public void setTileSize(int tileWidth, int tileHeight) {
+        if (tileWidth < 1 || tileHeight < 1)
+            throw new IllegalArgumentException("Illegal dimensions");
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+    }
+
+    /**
+     * Runs the function for every tile of the area [0-width)x[0-height) and waits for completion.
+     * Tiles are handed out in row-major order, the ones on the right and bottom edges are cut to the area.
+     * Exceptions thrown by the function are rethrown by this method.
+     * @param width area width
+     * @param height area height
+     * @throws IllegalArgumentException if any of the dimensions are less than 1
+     */
+    public void start(int width, int height) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Illegal dimensions");
+
+        int columns = (width + tileWidth - 1) / tileWidth;
+        int tiles = columns * ((height + tileHeight - 1) / tileHeight);
+        int threads = Math.min(tiles, pool.getParallelism());
+        AtomicInteger next = new AtomicInteger();
+        if (threads == 1) {
+            process(next, tiles, columns, width, height);
+            return;
+        }
+
+        RecursiveAction[] workers = new RecursiveAction[threads];
+        for (int w = 0; w < threads; w++) {
+            workers[w] = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    process(next, tiles, columns, width, height);
+                }
+            };
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(workers);
+            }
+        });
+    }
+
+    /**
+     * Runs the function for every tile of the area [0-width)x[0-height) without waiting for completion.
+     * The future completes exceptionally if the function throws.
+     * @param width area width
+     * @param height area height
+     * @return future completed once every tile is processed
+     * @throws IllegalArgumentException if any of the dimensions are less than 1
+     */
+    public CompletableFuture<Void> submit(int width, int height) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Illegal dimensions");
+        return CompletableFuture.runAsync(() -> start(width, height), pool);
+    }
+
+    void process(AtomicInteger next, int tiles, int columns, int width, int height) {
+        int t;
+        while ((t = next.getAndIncrement()) < tiles) {
+            int x0 = (t % columns) * tileWidth;
+            int y0 = (t / columns) * tileHeight;
+            tileFunction.function(x0, y0, Math.min(x0 + tileWidth, width), Math.min(y0 + tileHeight, height));
+        }
+    }
+}
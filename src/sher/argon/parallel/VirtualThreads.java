@@ -0,0 +1,75 @@
+package sher.argon.parallel;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+
+/**
+ * Access to virtual threads, available from Java 21.
+ * On older runtimes, the methods fall back to platform daemon threads, so code using virtual threads still runs.
+ * <br>
+ * Virtual threads are selected by default for {@link Parallel} and the recorder's writers if the {@code argon.virtualThreads} system property is {@code true}.
+ */
+public class VirtualThreads {
+    /**
+     * System property selecting virtual threads by default
+     */
+    public static final String PROPERTY = "argon.virtualThreads";
+
+    // Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), looked up reflectively to compile on older JDKs
+    static final Method ofVirtual, unstarted;
+
+    static {
+        Method builder = null, start = null;
+        try {
+            builder = Thread.class.getMethod("ofVirtual");
+            start = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            builder = null;
+            start = null;
+        }
+        ofVirtual = builder;
+        unstarted = start;
+    }
+
+    /**
+     * Returns if the runtime supports virtual threads.
+     * @return true on Java 21 and newer
+     */
+    public static boolean isAvailable() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Returns if virtual threads are requested by the {@value #PROPERTY} system property.
+     * @return property value
+     */
+    public static boolean isRequested() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Creates an unstarted virtual thread, or a platform daemon thread if virtual threads are not available.
+     * @param task thread's task
+     * @return unstarted thread
+     */
+    public static Thread newThread(Runnable task) {
+        if (ofVirtual != null) {
+            try {
+                return (Thread) unstarted.invoke(ofVirtual.invoke(null), task);
+            } catch (ReflectiveOperationException e) {
+                // Falls through to a platform thread
+            }
+        }
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Returns an executor starting a new {@link #newThread(Runnable) virtual thread} for every task.
+     * @return executor
+     */
+    public static Executor executor() {
+        return task -> newThread(task).start();
+    }
+}
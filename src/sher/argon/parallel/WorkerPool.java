@@ -0,0 +1,43 @@
+package sher.argon.parallel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Shared pool of worker threads used by the framework's multithreaded routines.
+ * <br>
+ * The pool is created on first use and lives for the whole program run, so no threads are created per call.
+ * Its threads are daemons and do not prevent the program from exiting.
+ */
+public class WorkerPool {
+    static ForkJoinPool pool;
+
+    /**
+     * Returns the shared pool, creating it on the first call.
+     * The pool's parallelism equals the number of available processors.
+     * @return shared {@link ForkJoinPool pool}
+     */
+    public static synchronized ForkJoinPool get() {
+        if (pool == null) {
+            pool = new ForkJoinPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    p -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                        thread.setName("Argon worker " + thread.getPoolIndex());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    null,
+                    false);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the number of threads the shared pool runs on.
+     * @return pool parallelism
+     */
+    public static int parallelism() {
+        return get().getParallelism();
+    }
+}
@@ -264,4 +264,41 @@ public class Gradient {
                 Math.min(light.getGreen(), object.getGreen()),
                 Math.min(light.getBlue(), object.getBlue()));
     }
+
+    /**
+     * Converts the color to the premultiplied format, where the color components are multiplied by alpha.
+     * Premultiplied colors are written to the rasters of premultiplied {@link sher.argon.Layer layers}.
+     * Proportional blends of premultiplied colors, see {@link #blend(int, int, double)}, are premultiplied as well.
+     * @param rgb rgb integer
+     * @return premultiplied rgb integer
+     */
+    public static int premultiply(int rgb) {
+        int a = rgb >>> 24;
+        if (a == 255) return rgb;
+        if (a == 0) return 0;
+        int r = ((rgb >> 16) & 0xFF) * a + 128;
+        int g = ((rgb >> 8) & 0xFF) * a + 128;
+        int b = (rgb & 0xFF) * a + 128;
+        return a << 24
+                | ((r + (r >> 8)) >> 8) << 16
+                | ((g + (g >> 8)) >> 8) << 8
+                | ((b + (b >> 8)) >> 8);
+    }
+
+    /**
+     * Converts the premultiplied color back to the regular format.
+     * Color components of a fully transparent color are lost.
+     * @param rgb premultiplied rgb integer
+     * @return rgb integer
+     */
+    public static int unpremultiply(int rgb) {
+        int a = rgb >>> 24;
+        if (a == 255) return rgb;
+        if (a == 0) return 0;
+        int half = a >> 1;
+        int r = Math.min((((rgb >> 16) & 0xFF) * 255 + half) / a, 255);
+        int g = Math.min((((rgb >> 8) & 0xFF) * 255 + half) / a, 255);
+        int b = Math.min(((rgb & 0xFF) * 255 + half) / a, 255);
+        return a << 24 | r << 16 | g << 8 | b;
+    }
 }